@@ -0,0 +1,643 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A compiled copy of a script kept next to it (-Dlox.cache=true): the
+ * resolved syntax tree in a compact binary form, together with the depth
+ * the Resolver found for every variable. A script "foo.lox" is cached in
+ * "foo.loxc". The cache records the SHA-256 of the source it was made
+ * from, so an edited script is simply compiled again and the cache
+ * rewritten.
+ *
+ * The format is a preorder walk of the tree. Nodes are one tag byte
+ * followed by their fields; numbers are unsigned LEB128 varints; each
+ * distinct string is written out once and afterwards referred to by its
+ * index. A token is its type, its lexeme only when the type does not fix
+ * it, and its line as a difference from the previous token's.
+ */
+class AstCache {
+  static final boolean ENABLED = Boolean.getBoolean("lox.cache");
+
+  private static final int MAGIC = 0x4c4f5843; // "LOXC"
+  private static final int VERSION = 1;
+
+  // tags; 0 is a missing (null) node
+  private static final int NULL = 0;
+  private static final int ASSIGN = 1;
+  private static final int BINARY = 2;
+  private static final int CALL = 3;
+  private static final int GET = 4;
+  private static final int GROUPING = 5;
+  private static final int LITERAL = 6;
+  private static final int LOGICAL = 7;
+  private static final int SET = 8;
+  private static final int SUPER = 9;
+  private static final int THIS = 10;
+  private static final int UNARY = 11;
+  private static final int VARIABLE = 12;
+  private static final int BLOCK = 13;
+  private static final int CLASS = 14;
+  private static final int EXPRESSION = 15;
+  private static final int FUNCTION = 16;
+  private static final int IF = 17;
+  private static final int PRINT = 18;
+  private static final int RETURN = 19;
+  private static final int VAR = 20;
+  private static final int WHILE = 21;
+  private static final int BREAK = 22;
+  private static final int CONTINUE = 23;
+
+  // literal values
+  private static final int NIL_VALUE = 0;
+  private static final int FALSE_VALUE = 1;
+  private static final int TRUE_VALUE = 2;
+  private static final int NUMBER_VALUE = 3;
+  private static final int STRING_VALUE = 4;
+  // a number that is a small whole number, stored as a varint
+  private static final int INTEGER_VALUE = 5;
+
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private final Path cachePath;
+  private final byte[] hash;
+
+  AstCache(String sourcePath, ByteBuffer source) {
+    String name = sourcePath.endsWith(".lox") ? sourcePath + "c" : sourcePath + ".loxc";
+    this.cachePath = Paths.get(name);
+    this.hash = sha256(source);
+  }
+
+  private static byte[] sha256(ByteBuffer source) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(source.duplicate());
+      return digest.digest();
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  /*
+   * The cached program, with its variables already resolved, or null when
+   * there is no usable cache for this source.
+   */
+  List<Stmt> load() {
+    if (!Files.isRegularFile(cachePath))
+      return null;
+
+    try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+      ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (in.getInt() != MAGIC || in.getInt() != VERSION)
+        return null;
+      byte[] stored = new byte[hash.length];
+      in.get(stored);
+      if (!Arrays.equals(stored, hash))
+        return null;
+
+      return new Reader(in).statements();
+    } catch (IOException | RuntimeException error) {
+      // Unreadable or damaged; compiling again replaces it.
+      return null;
+    }
+  }
+
+  // Writes the resolved program. A cache that cannot be written is skipped.
+  void store(List<Stmt> statements) {
+    Path temporary = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(temporary), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(hash);
+        new Writer(out).statements(statements);
+      }
+      // Readers never see a half-written cache.
+      Files.move(temporary, cachePath, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException error) {
+      try {
+        Files.deleteIfExists(temporary);
+      } catch (IOException ignored) {
+        // Nothing more to clean up.
+      }
+    }
+  }
+
+  private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final OutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private int line = 0;
+
+    Writer(OutputStream out) {
+      this.out = out;
+    }
+
+    // The visitor methods carry an IOException out unchecked.
+    void statements(List<Stmt> statements) throws IOException {
+      try {
+        writeStatements(statements);
+      } catch (UncheckedIOException error) {
+        throw error.getCause();
+      }
+    }
+
+    private void writeStatements(List<? extends Stmt> statements) {
+      varint(statements.size());
+      for (Stmt statement : statements)
+        write(statement);
+    }
+
+    private void write(Stmt stmt) {
+      if (stmt == null) {
+        varint(NULL);
+      } else {
+        stmt.accept(this);
+      }
+    }
+
+    private void write(Expr expr) {
+      if (expr == null) {
+        varint(NULL);
+      } else {
+        expr.accept(this);
+      }
+    }
+
+    private void token(Token token) {
+      varint(token.type.ordinal());
+      if (TokenBuffer.fixedLexeme(token.type) == null)
+        string(token.lexeme);
+      // zigzag, so small steps back stay small
+      int delta = token.line - line;
+      varint((delta << 1) ^ (delta >> 31));
+      line = token.line;
+    }
+
+    // 0 for a global, otherwise the depth plus one
+    private void depth(Expr expr) {
+      varint(expr.depth + 1);
+    }
+
+    private void value(Object value) {
+      if (value == null) {
+        varint(NIL_VALUE);
+      } else if (value instanceof Boolean) {
+        varint((Boolean) value ? TRUE_VALUE : FALSE_VALUE);
+      } else if (value instanceof Double && isSmallInteger((Double) value)) {
+        varint(INTEGER_VALUE);
+        varint((int) (double) (Double) value);
+      } else if (value instanceof Double) {
+        varint(NUMBER_VALUE);
+        long bits = Double.doubleToRawLongBits((Double) value);
+        for (int shift = 56; shift >= 0; shift -= 8)
+          raw((int) (bits >>> shift));
+      } else {
+        varint(STRING_VALUE);
+        string((String) value);
+      }
+    }
+
+    private static boolean isSmallInteger(double value) {
+      // -0.0 must keep its sign, so it is not one.
+      return value >= 0 && value < (1 << 28) && value == Math.rint(value) &&
+          Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    // A string's first use spells it out; later ones give its index.
+    private void string(String string) {
+      Integer index = strings.get(string);
+      if (index != null) {
+        varint(index);
+        return;
+      }
+
+      varint(strings.size());
+      strings.put(string, strings.size());
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      varint(bytes.length);
+      try {
+        out.write(bytes);
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+
+    private void varint(int value) {
+      while ((value & ~0x7f) != 0) {
+        raw((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      raw(value);
+    }
+
+    private void raw(int b) {
+      try {
+        out.write(b);
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      varint(ASSIGN);
+      token(expr.name);
+      write(expr.value);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      varint(BINARY);
+      write(expr.left);
+      token(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      varint(CALL);
+      write(expr.callee);
+      token(expr.paren);
+      varint(expr.arguments.size());
+      for (Expr argument : expr.arguments)
+        write(argument);
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      varint(GET);
+      write(expr.object);
+      token(expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      varint(GROUPING);
+      write(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      varint(LITERAL);
+      value(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      varint(LOGICAL);
+      write(expr.left);
+      token(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      varint(SET);
+      write(expr.object);
+      token(expr.name);
+      write(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      varint(SUPER);
+      token(expr.keyword);
+      token(expr.method);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      varint(THIS);
+      token(expr.keyword);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      varint(UNARY);
+      token(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      varint(VARIABLE);
+      token(expr.name);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      varint(BLOCK);
+      writeStatements(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      varint(CLASS);
+      token(stmt.name);
+      write(stmt.superclass);
+      writeStatements(stmt.methods);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      varint(EXPRESSION);
+      write(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      varint(FUNCTION);
+      token(stmt.name);
+      varint(stmt.params.size());
+      for (Token param : stmt.params)
+        token(param);
+      writeStatements(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      varint(IF);
+      write(stmt.condition);
+      write(stmt.thenBranch);
+      write(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      varint(PRINT);
+      write(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      varint(RETURN);
+      token(stmt.keyword);
+      write(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      varint(VAR);
+      token(stmt.name);
+      write(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      varint(WHILE);
+      write(stmt.condition);
+      write(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+      varint(BREAK);
+      token(stmt.keyword);
+      return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+      varint(CONTINUE);
+      token(stmt.keyword);
+      return null;
+    }
+  }
+
+  private static class Reader {
+    private final ByteBuffer in;
+    private final List<String> strings = new ArrayList<>();
+    private int line = 0;
+
+    Reader(ByteBuffer in) {
+      this.in = in;
+    }
+
+    List<Stmt> statements() {
+      int count = varint();
+      List<Stmt> statements = new ArrayList<>(count);
+      for (int i = 0; i < count; i++)
+        statements.add(stmt());
+      return statements;
+    }
+
+    private List<Stmt.Function> functions() {
+      int count = varint();
+      List<Stmt.Function> functions = new ArrayList<>(count);
+      for (int i = 0; i < count; i++)
+        functions.add((Stmt.Function) stmt());
+      return functions;
+    }
+
+    private Stmt stmt() {
+      int tag = varint();
+      switch (tag) {
+        case NULL:
+          return null;
+        case BLOCK:
+          return new Stmt.Block(statements());
+        case CLASS: {
+          Token name = token();
+          Expr.Variable superclass = (Expr.Variable) expr();
+          return new Stmt.Class(name, superclass, functions());
+        }
+        case EXPRESSION:
+          return new Stmt.Expression(expr());
+        case FUNCTION: {
+          Token name = token();
+          int count = varint();
+          List<Token> params = new ArrayList<>(count);
+          for (int i = 0; i < count; i++)
+            params.add(token());
+          return new Stmt.Function(name, params, statements());
+        }
+        case IF: {
+          Expr condition = expr();
+          Stmt thenBranch = stmt();
+          return new Stmt.If(condition, thenBranch, stmt());
+        }
+        case PRINT:
+          return new Stmt.Print(expr());
+        case RETURN: {
+          Token keyword = token();
+          return new Stmt.Return(keyword, expr());
+        }
+        case VAR: {
+          Token name = token();
+          return new Stmt.Var(name, expr());
+        }
+        case WHILE: {
+          Expr condition = expr();
+          return new Stmt.While(condition, stmt());
+        }
+        case BREAK:
+          return new Stmt.Break(token());
+        case CONTINUE:
+          return new Stmt.Continue(token());
+        default:
+          throw new IllegalStateException("Bad statement tag " + tag + ".");
+      }
+    }
+
+    private Expr expr() {
+      int tag = varint();
+      switch (tag) {
+        case NULL:
+          return null;
+        case ASSIGN: {
+          Token name = token();
+          return depth(new Expr.Assign(name, expr()));
+        }
+        case BINARY: {
+          Expr left = expr();
+          Token operator = token();
+          return new Expr.Binary(left, operator, expr());
+        }
+        case CALL: {
+          Expr callee = expr();
+          Token paren = token();
+          int count = varint();
+          List<Expr> arguments = new ArrayList<>(count);
+          for (int i = 0; i < count; i++)
+            arguments.add(expr());
+          return new Expr.Call(callee, paren, arguments);
+        }
+        case GET: {
+          Expr object = expr();
+          return new Expr.Get(object, token());
+        }
+        case GROUPING:
+          return new Expr.Grouping(expr());
+        case LITERAL:
+          return new Expr.Literal(value());
+        case LOGICAL: {
+          Expr left = expr();
+          Token operator = token();
+          return new Expr.Logical(left, operator, expr());
+        }
+        case SET: {
+          Expr object = expr();
+          Token name = token();
+          return new Expr.Set(object, name, expr());
+        }
+        case SUPER: {
+          Token keyword = token();
+          return depth(new Expr.Super(keyword, token()));
+        }
+        case THIS:
+          return depth(new Expr.This(token()));
+        case UNARY: {
+          Token operator = token();
+          return new Expr.Unary(operator, expr());
+        }
+        case VARIABLE:
+          return depth(new Expr.Variable(token()));
+        default:
+          throw new IllegalStateException("Bad expression tag " + tag + ".");
+      }
+    }
+
+    private Token token() {
+      TokenType type = TYPES[varint()];
+      String lexeme = TokenBuffer.fixedLexeme(type);
+      if (lexeme == null)
+        lexeme = string();
+      int delta = varint();
+      line += (delta >>> 1) ^ -(delta & 1);
+      return new Token(type, lexeme, null, line);
+    }
+
+    private <T extends Expr> T depth(T expr) {
+      expr.depth = varint() - 1;
+      return expr;
+    }
+
+    private Object value() {
+      switch (varint()) {
+        case NIL_VALUE:
+          return null;
+        case FALSE_VALUE:
+          return false;
+        case TRUE_VALUE:
+          return true;
+        case NUMBER_VALUE:
+          return Double.longBitsToDouble(in.getLong());
+        case INTEGER_VALUE:
+          return (double) varint();
+        case STRING_VALUE:
+          // Literals are interned, as the Parser would have.
+          return Interner.intern(string());
+        default:
+          throw new IllegalStateException("Bad literal tag.");
+      }
+    }
+
+    private String string() {
+      int index = varint();
+      if (index < strings.size())
+        return strings.get(index);
+
+      byte[] bytes = new byte[varint()];
+      in.get(bytes);
+      String string = new String(bytes, StandardCharsets.UTF_8);
+      strings.add(string);
+      return string;
+    }
+
+    private int varint() {
+      int value = 0;
+      for (int shift = 0;; shift += 7) {
+        byte b = in.get();
+        value |= (b & 0x7f) << shift;
+        if (b >= 0)
+          return value;
+      }
+    }
+  }
+}
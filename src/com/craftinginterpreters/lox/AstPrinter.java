@@ -79,8 +79,13 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
     builder.append(") ");
 
-    for (Stmt body : stmt.body) {
-      builder.append(body.accept(this));
+    // A body that has not been parsed yet is left that way.
+    if (stmt.body instanceof LazyBody) {
+      builder.append("...");
+    } else {
+      for (Stmt body : stmt.body) {
+        builder.append(body.accept(this));
+      }
     }
 
     builder.append(")");
@@ -119,6 +124,9 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
   @Override
   public String visitVarStmt(Stmt.Var stmt) {
+    if (stmt instanceof ScalarInstance) {
+      return parenthesize2("var:scalar", stmt.name, "=", stmt.initializer);
+    }
     if (stmt.initializer == null) {
       return parenthesize2("var", stmt.name);
     }
@@ -130,9 +138,23 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
   @Override
   public String visitWhileStmt(Stmt.While stmt) {
+    if (stmt instanceof CountedLoop) {
+      return parenthesize2("while:counted", stmt.condition,
+          ((CountedLoop) stmt).countedBody);
+    }
     return parenthesize2("while", stmt.condition, stmt.body);
   }
   // < Control Flow omit
+
+  @Override
+  public String visitBreakStmt(Stmt.Break stmt) {
+    return "(break)";
+  }
+
+  @Override
+  public String visitContinueStmt(Stmt.Continue stmt) {
+    return "(continue)";
+  }
   // > Statements and State omit
 
   @Override
@@ -143,6 +165,12 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
   @Override
   public String visitBinaryExpr(Expr.Binary expr) {
+    if (expr instanceof SpecializedBinary) {
+      String operands = ((SpecializedBinary) expr).strings ? "strings"
+          : "numbers";
+      return parenthesize(expr.operator.lexeme + ":" + operands,
+          expr.left, expr.right);
+    }
     return parenthesize(expr.operator.lexeme,
         expr.left, expr.right);
   }
@@ -150,6 +178,10 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
   @Override
   public String visitCallExpr(Expr.Call expr) {
+    if (expr instanceof InlinedCall) {
+      return parenthesize2("inlined", expr.callee, expr.arguments, "=>",
+          ((InlinedCall) expr).body);
+    }
     return parenthesize2("call", expr.callee, expr.arguments);
   }
   // < Functions omit
@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * Replaces operators whose operands are all literals with the value they
+ * give. The value comes from the Interpreter's own operators, so every
+ * coercion comes out the same; an operation that fails is left alone, to
+ * fail at runtime with its usual message and line. Groupings only steer
+ * the parser, so they are dropped.
+ */
+class ConstantFolder extends Pass {
+  // Longer strings are only built if the code runs.
+  private static final int MAX_STRING = 1024;
+
+  static int folded = 0;
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr rewritten = super.visitBinaryExpr(expr);
+    Expr.Binary binary = (Expr.Binary) rewritten;
+    if (!(binary.left instanceof Expr.Literal) ||
+        !(binary.right instanceof Expr.Literal))
+      return rewritten;
+
+    Object left = ((Expr.Literal) binary.left).value;
+    Object right = ((Expr.Literal) binary.right).value;
+    Token operator = binary.operator;
+    if (operator.type == TokenType.STAR && left instanceof Double &&
+        right instanceof String &&
+        (double) left * ((String) right).length() > MAX_STRING)
+      return rewritten;
+
+    try {
+      return literal(Interpreter.binary(operator.type, operator.line, left,
+          right), rewritten);
+    } catch (RuntimeError error) {
+      return rewritten;
+    }
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return expression(expr.expression);
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr rewritten = super.visitLogicalExpr(expr);
+    Expr.Logical logical = (Expr.Logical) rewritten;
+    if (!(logical.left instanceof Expr.Literal))
+      return rewritten;
+
+    // The left operand decides whether the right one is the value.
+    folded++;
+    boolean truthy = Interpreter.isTruthy(((Expr.Literal) logical.left).value);
+    if (logical.operator.type == TokenType.OR ? truthy : !truthy)
+      return logical.left;
+    return logical.right;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr rewritten = super.visitUnaryExpr(expr);
+    Expr.Unary unary = (Expr.Unary) rewritten;
+    if (!(unary.right instanceof Expr.Literal))
+      return rewritten;
+
+    Object right = ((Expr.Literal) unary.right).value;
+    try {
+      return literal(Interpreter.unary(unary.operator.type,
+          unary.operator.line, right), rewritten);
+    } catch (RuntimeError error) {
+      return rewritten;
+    }
+  }
+
+  private Expr literal(Object value, Expr original) {
+    if (value instanceof String && ((String) value).length() > MAX_STRING)
+      return original;
+    folded++;
+    return new Expr.Literal(value);
+  }
+}
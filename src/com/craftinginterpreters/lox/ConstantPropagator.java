@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Replaces each read of a local that is never assigned with the literal
+ * it was declared with, or nil if it had no initializer, and folds what
+ * that makes constant as it goes. The declaration itself stays.
+ *
+ * A first walk finds the locals that are assigned anywhere, in nested
+ * functions too. A function whose body has not been parsed yet could
+ * assign any local it can see, so all of those count as assigned.
+ */
+class ConstantPropagator extends ConstantFolder {
+  static int propagated = 0;
+
+  private final Set<Token> assigned = new HashSet<>();
+  private final Map<Token, Object> constants = new HashMap<>();
+
+  @Override
+  List<Stmt> run(List<Stmt> statements) {
+    new Assignments().run(statements);
+    return super.run(statements);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Stmt.Var rewritten = (Stmt.Var) super.visitVarStmt(stmt);
+    if (atTopLevel() || assigned.contains(stmt.name))
+      return rewritten;
+
+    if (rewritten.initializer == null) {
+      constants.put(stmt.name, null);
+    } else if (rewritten.initializer instanceof Expr.Literal) {
+      constants.put(stmt.name, ((Expr.Literal) rewritten.initializer).value);
+    }
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    Token declaration = declaration(expr, expr.name);
+    if (declaration == null || !constants.containsKey(declaration))
+      return expr;
+
+    propagated++;
+    return new Expr.Literal(constants.get(declaration));
+  }
+
+  private class Assignments extends Pass {
+    @Override
+    Stmt.Function function(Stmt.Function stmt) {
+      if (stmt.body instanceof LazyBody)
+        assigned.addAll(visibleLocals());
+      return super.function(stmt);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+      Token declaration = declaration(expr, expr.name);
+      if (declaration != null)
+        assigned.add(declaration);
+      return super.visitAssignExpr(expr);
+    }
+  }
+}
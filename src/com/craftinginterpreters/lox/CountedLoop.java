@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * A while loop that CountedLoopSpecializer has found counts a local from
+ * its value on entry up or down to a limit, by a fixed step at the end of
+ * each iteration. It is still a While, so code that knows nothing of it
+ * runs the condition and body as they are.
+ *
+ * The Interpreter instead keeps the count in this node as a double while
+ * the loop runs, and runs countedBody: the body without its last
+ * statement, the step, and with each read of the local made a Read of the
+ * count. The local itself is only assigned once the loop is done. When
+ * the local or the limit is not a number on entry, the loop runs as an
+ * ordinary one.
+ */
+class CountedLoop extends Stmt.While {
+  static int missed = 0;
+
+  // the local being counted, as the condition reads it
+  final Expr.Variable variable;
+  final TokenType comparison;
+  final Expr limit;
+  // what each iteration adds to the count
+  final double step;
+  // set once its Reads can refer to this loop
+  Stmt countedBody;
+
+  // the count while the loop runs, saved around a loop that runs again
+  // inside itself through a call
+  double count;
+
+  CountedLoop(Expr condition, Stmt body, Expr.Variable variable,
+      TokenType comparison, Expr limit, double step) {
+    super(condition, body);
+    this.variable = variable;
+    this.comparison = comparison;
+    this.limit = limit;
+    this.step = step;
+  }
+
+  // A read of the local in countedBody.
+  static class Read extends Expr.Variable {
+    final CountedLoop loop;
+
+    Read(Expr.Variable variable, CountedLoop loop) {
+      super(variable.name);
+      this.depth = variable.depth;
+      this.loop = loop;
+    }
+  }
+}
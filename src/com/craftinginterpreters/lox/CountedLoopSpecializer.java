@@ -0,0 +1,204 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Turns a loop that counts a local to a limit into a CountedLoop, as a for
+ * loop such as "for (var i = 0; i < n; i = i + 1)" is parsed:
+ *  - Its condition compares the local with "<", "<=", ">" or ">=" to a
+ *    limit.
+ *  - Its body is a block that ends by adding a number to the local, or
+ *    taking one from it, and assigns the local nowhere else.
+ *  - No function reads or assigns the local other than the one declaring
+ *    it, so nothing but the loop can see it while the loop runs.
+ *  - The limit is a number, or a variable that nothing in the loop can
+ *    assign: a local the body does not assign and no nested function
+ *    does either if the body makes a call, or a global the body does not
+ *    assign and makes no calls.
+ *
+ * A loop inside a counted one reads the outer count through Reads as
+ * well, in its condition, its limit and both its bodies. A loop inside the
+ * body that runs when a counted loop cannot count is left as it is.
+ *
+ * Programs with a break or continue are left alone, for the reasons
+ * TypeInference gives.
+ */
+class CountedLoopSpecializer extends Pass {
+  static int counted = 0;
+
+  private Set<Token> captured;
+  private Set<Token> assigned;
+  // the loops whose countedBody is being built, by the local each counts
+  private final Map<Token, CountedLoop> counting = new HashMap<>();
+  // false while building the body a counted loop runs when it cannot count
+  private boolean specializing = true;
+
+  @Override
+  List<Stmt> run(List<Stmt> statements) {
+    TypeInference.Unstructured finder = new TypeInference.Unstructured();
+    finder.run(statements);
+    if (finder.found || finder.unparsed)
+      return statements;
+
+    captured = capturedByFunctions(statements);
+    assigned = assignedByFunctions(statements);
+    return super.run(statements);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Token local = specializing ? countedLocal(stmt) : null;
+    if (local == null)
+      return super.visitWhileStmt(stmt);
+
+    Expr.Binary condition = (Expr.Binary) expression(stmt.condition);
+    List<Stmt> body = ((Stmt.Block) stmt.body).statements;
+    Expr.Binary increment = (Expr.Binary) ((Expr.Assign)
+        ((Stmt.Expression) body.get(body.size() - 1)).expression).value;
+    double step = (double) ((Expr.Literal) increment.right).value;
+    if (increment.operator.type == TokenType.MINUS)
+      step = -step;
+
+    specializing = false;
+    Stmt ordinary = statement(stmt.body);
+    specializing = true;
+
+    CountedLoop loop = new CountedLoop(condition, ordinary,
+        (Expr.Variable) ((Expr.Binary) stmt.condition).left,
+        condition.operator.type, condition.right, step);
+    counting.put(local, loop);
+    loop.countedBody = statement(
+        new Stmt.Block(body.subList(0, body.size() - 1)));
+    counting.remove(local);
+    counted++;
+    return loop;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    if (counting.isEmpty())
+      return expr;
+    CountedLoop loop = counting.get(declaration(expr, expr.name));
+    return loop == null ? expr : new CountedLoop.Read(expr, loop);
+  }
+
+  // The local that the loop counts, or null if it is not a counted loop.
+  private Token countedLocal(Stmt.While stmt) {
+    if (!(stmt.condition instanceof Expr.Binary))
+      return null;
+    Expr.Binary condition = (Expr.Binary) stmt.condition;
+    switch (condition.operator.type) {
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        break;
+      default:
+        return null;
+    }
+    if (!(condition.left instanceof Expr.Variable) ||
+        condition.left.depth < 0)
+      return null;
+    Expr.Variable variable = (Expr.Variable) condition.left;
+    Token local = declaration(variable, variable.name);
+    if (local == null || captured.contains(local) ||
+        !increments(stmt.body, variable))
+      return null;
+
+    List<Stmt> statements = ((Stmt.Block) stmt.body).statements;
+    Uses uses = new Uses(variable, condition.right);
+    uses.run(List.of(new Stmt.Block(
+        statements.subList(0, statements.size() - 1))));
+    if (uses.assignsCounted || uses.assignsLimit)
+      return null;
+
+    Expr limit = condition.right;
+    if (limit instanceof Expr.Literal)
+      return ((Expr.Literal) limit).value instanceof Double ? local : null;
+    if (!(limit instanceof Expr.Variable))
+      return null;
+    Token declaration = declaration(limit, ((Expr.Variable) limit).name);
+    if (declaration == local)
+      return null;
+    // A call could assign a global, or a local that a function assigns.
+    if (uses.calls && (declaration == null || assigned.contains(declaration)))
+      return null;
+    return local;
+  }
+
+  // Whether the body ends by stepping the local by a number.
+  private static boolean increments(Stmt body, Expr.Variable variable) {
+    if (!(body instanceof Stmt.Block))
+      return false;
+    List<Stmt> statements = ((Stmt.Block) body).statements;
+    if (statements.isEmpty() ||
+        !(statements.get(statements.size() - 1) instanceof Stmt.Expression))
+      return false;
+
+    Expr last = ((Stmt.Expression)
+        statements.get(statements.size() - 1)).expression;
+    if (!(last instanceof Expr.Assign))
+      return false;
+    Expr.Assign assign = (Expr.Assign) last;
+    if (!same(assign, assign.name, variable, 1) ||
+        !(assign.value instanceof Expr.Binary))
+      return false;
+
+    Expr.Binary value = (Expr.Binary) assign.value;
+    return (value.operator.type == TokenType.PLUS ||
+        value.operator.type == TokenType.MINUS) &&
+        value.left instanceof Expr.Variable &&
+        same(value.left, ((Expr.Variable) value.left).name, variable, 1) &&
+        value.right instanceof Expr.Literal &&
+        ((Expr.Literal) value.right).value instanceof Double;
+  }
+
+  // Whether expr, scopes inside the point where variable is read, refers
+  // to the same variable.
+  private static boolean same(Expr expr, Token name, Expr.Variable variable,
+      int scopes) {
+    if (name.symbol != variable.name.symbol)
+      return false;
+    if (variable.depth < 0)
+      return expr.depth < 0;
+    return expr.depth == variable.depth + scopes;
+  }
+
+  /*
+   * What a loop's body does to its local and limit, other than stepping
+   * the local at its end, and whether it makes calls. It is walked from
+   * the loop's condition, so the scopes it enters are relative to that.
+   */
+  private static class Uses extends Pass {
+    private final Expr.Variable counted;
+    // the limit, if it is a variable
+    private final Expr.Variable limit;
+    boolean assignsCounted = false;
+    boolean assignsLimit = false;
+    boolean calls = false;
+
+    Uses(Expr.Variable counted, Expr limit) {
+      this.counted = counted;
+      this.limit = limit instanceof Expr.Variable ? (Expr.Variable) limit
+          : null;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+      if (same(expr, expr.name, counted, scopeCount()))
+        assignsCounted = true;
+      if (limit != null && same(expr, expr.name, limit, scopeCount()))
+        assignsLimit = true;
+      return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+      calls = true;
+      return super.visitCallExpr(expr);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Removes statements that can never run: those after a return or break
+ * in the same list, the branch of an if that a literal condition rules
+ * out, and loops whose condition is a falsy literal. Folding is what turns
+ * most conditions into literals, so this runs after it.
+ */
+class DeadCodeEliminator extends Pass {
+  static int removed = 0;
+
+  @Override
+  List<Stmt> statements(List<Stmt> statements) {
+    List<Stmt> result = super.statements(statements);
+    for (int i = 0; i < result.size() - 1; i++) {
+      if (terminates(result.get(i))) {
+        removed += result.size() - 1 - i;
+        return new ArrayList<>(result.subList(0, i + 1));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    if (!(stmt.condition instanceof Expr.Literal))
+      return super.visitIfStmt(stmt);
+
+    removed++;
+    Stmt branch = Interpreter.isTruthy(((Expr.Literal) stmt.condition).value)
+        ? stmt.thenBranch : stmt.elseBranch;
+    return branch == null ? null : branch.accept(this);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    if (stmt.condition instanceof Expr.Literal &&
+        !Interpreter.isTruthy(((Expr.Literal) stmt.condition).value)) {
+      removed++;
+      return null;
+    }
+    return super.visitWhileStmt(stmt);
+  }
+
+  // Whether nothing after stmt in the same list can run.
+  private static boolean terminates(Stmt stmt) {
+    if (stmt instanceof Stmt.Return || stmt instanceof Stmt.Break)
+      return true;
+    if (stmt instanceof Stmt.Block) {
+      List<Stmt> statements = ((Stmt.Block) stmt).statements;
+      return !statements.isEmpty() &&
+          terminates(statements.get(statements.size() - 1));
+    }
+    if (stmt instanceof Stmt.If) {
+      Stmt.If ifStmt = (Stmt.If) stmt;
+      return ifStmt.elseBranch != null && terminates(ifStmt.thenBranch) &&
+          terminates(ifStmt.elseBranch);
+    }
+    return false;
+  }
+}
@@ -8,7 +8,8 @@ class Environment {
   // > enclosing-field
   final Environment enclosing;
   // < enclosing-field
-  private final Map<String, Object> values = new HashMap<>();
+  // keyed by interned name, so lookups never hash the characters
+  private final Map<Symbol, Object> values = new HashMap<>();
 
   // > environment-constructors
   Environment() { // for the global scope’s environment
@@ -22,8 +23,8 @@ class Environment {
   // > environment-get
 
   Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+    if (values.containsKey(name.symbol)) {
+      return values.get(name.symbol);
     }
     // > environment-get-enclosing
 
@@ -40,10 +41,43 @@ class Environment {
   }
 
   // < environment-get
+  /*
+   * For FlatInterpreter, whose nodes keep a name and a line rather than a
+   * Token; the Token is only made to report an undefined variable.
+   */
+  Object get(Symbol name, int line) {
+    for (Environment environment = this; environment != null;
+        environment = environment.enclosing) {
+      Object value = environment.values.get(name);
+      if (value != null || environment.values.containsKey(name))
+        return value;
+    }
+
+    throw undefined(name, line);
+  }
+
+  void assign(Symbol name, int line, Object value) {
+    for (Environment environment = this; environment != null;
+        environment = environment.enclosing) {
+      if (environment.values.containsKey(name)) {
+        environment.values.put(name, value);
+        return;
+      }
+    }
+
+    throw undefined(name, line);
+  }
+
+  private static RuntimeError undefined(Symbol name, int line) {
+    return new RuntimeError(
+        new Token(TokenType.IDENTIFIER, name.name, null, line, name),
+        "Undefined variable '" + name.name + "'.");
+  }
+
   // > environment-assign
   void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
+    if (values.containsKey(name.symbol)) {
+      values.put(name.symbol, value);
       return;
     }
 
@@ -64,10 +98,15 @@ class Environment {
 
   // < environment-assign
   // > environment-define
-  void define(String name, Object value) {
+  void define(Symbol name, Object value) {
     values.put(name, value);
   }
 
+  // for natives, which are defined by name
+  void define(String name, Object value) {
+    define(Symbol.of(name), value);
+  }
+
   // < environment-define
   // > Resolving and Binding ancestor
   Environment ancestor(int distance) {
@@ -85,14 +124,18 @@ class Environment {
    */
   // < Resolving and Binding ancestor
   // > Resolving and Binding get-at
-  Object getAt(int distance, String name) {
+  Object getAt(int distance, Symbol name) {
     return ancestor(distance).values.get(name);
   }
 
   // < Resolving and Binding get-at
   // > Resolving and Binding assign-at
   void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+    assignAt(distance, name.symbol, value);
+  }
+
+  void assignAt(int distance, Symbol name, Object value) {
+    ancestor(distance).values.put(name, value);
   }
 
   // < Resolving and Binding assign-at
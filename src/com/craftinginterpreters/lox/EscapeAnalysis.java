@@ -0,0 +1,263 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Finds the instances that never leave the local they are made in, and
+ * keeps their fields in locals instead (see ScalarInstance). Such a local
+ * is declared with a call to a global class and is used only to read and
+ * set the fields the class's initializer sets: it is not passed, returned,
+ * stored, printed, compared or assigned, no method is called on it, and
+ * no nested function uses it. The initializer must do nothing but set
+ * fields to its parameters or to literals, so making the instance has no
+ * effect but those fields, and cannot fail once the arguments are
+ * evaluated.
+ *
+ * The class may also be one an earlier program declared, as with the
+ * Inliner's functions. Programs with a break or continue are left alone,
+ * for the reasons TypeInference gives.
+ */
+class EscapeAnalysis extends Pass {
+  static int replaced = 0;
+
+  // the initializers of the classes declared at top level in this program
+  // that only set fields, by class name
+  private final Map<Symbol, Stmt.Function> initializers = new HashMap<>();
+  // every name declared at top level in this program
+  private final Set<Symbol> declared = new HashSet<>();
+
+  // the instances' locals, with their class's initializer
+  private Map<Token, Stmt.Function> instances;
+  // and with the local for each field
+  private final Map<Token, Map<Symbol, Token>> scalars = new HashMap<>();
+
+  @Override
+  List<Stmt> run(List<Stmt> statements) {
+    // A name declared twice here could be either when a call runs.
+    for (Stmt statement : statements) {
+      Token name = declaredName(statement);
+      if (name == null)
+        continue;
+
+      initializers.remove(name.symbol);
+      if (declared.add(name.symbol) && statement instanceof Stmt.Class) {
+        Stmt.Function init = initializer((Stmt.Class) statement);
+        if (init != null)
+          initializers.put(name.symbol, init);
+      }
+    }
+
+    TypeInference.Unstructured finder = new TypeInference.Unstructured();
+    finder.run(statements);
+    if (finder.found)
+      return statements;
+
+    Uses uses = new Uses();
+    uses.run(statements);
+    instances = uses.instances;
+    Set<Token> captured = capturedByFunctions(statements);
+    for (Token name : instances.keySet()) {
+      if (uses.escaped.contains(name) || captured.contains(name))
+        continue;
+      Map<Symbol, Token> fields = new HashMap<>();
+      for (Stmt statement : instances.get(name).body) {
+        Symbol field = ((Expr.Set)
+            ((Stmt.Expression) statement).expression).name.symbol;
+        fields.put(field, new Token(TokenType.IDENTIFIER,
+            name.lexeme + "." + field.name, null, name.line));
+      }
+      scalars.put(name, fields);
+    }
+    if (scalars.isEmpty())
+      return statements;
+    return super.run(statements);
+  }
+
+  // The initializer of the class a global names, if it only sets fields.
+  private Stmt.Function initializer(Symbol name) {
+    if (declared.contains(name))
+      return initializers.get(name);
+    Object klass = earlierGlobal(name);
+    if (!(klass instanceof LoxClass))
+      return null;
+    // The Interpreter calls the one findMethod() gives.
+    LoxFunction init = ((LoxClass) klass).findMethod(Symbol.INIT);
+    return init == null ? null : onlySetsFields(init.declaration());
+  }
+
+  // The class's initializer, if it does nothing but set fields.
+  private static Stmt.Function initializer(Stmt.Class klass) {
+    Stmt.Function init = null;
+    // As in the Interpreter, the last method with a name is the one used.
+    for (Stmt.Function method : klass.methods) {
+      if (method.name.symbol == Symbol.INIT)
+        init = method;
+    }
+    return onlySetsFields(init);
+  }
+
+  private static Stmt.Function onlySetsFields(Stmt.Function init) {
+    if (init == null || init.body instanceof LazyBody)
+      return null;
+
+    for (Stmt statement : init.body) {
+      if (!(statement instanceof Stmt.Expression) ||
+          !(((Stmt.Expression) statement).expression instanceof Expr.Set))
+        return null;
+      Expr.Set set = (Expr.Set) ((Stmt.Expression) statement).expression;
+      if (!(set.object instanceof Expr.This))
+        return null;
+      // Only the parameters are locals in the initializer's own scope.
+      if (!(set.value instanceof Expr.Literal) &&
+          !(set.value instanceof Expr.Variable && set.value.depth == 0))
+        return null;
+    }
+    return init;
+  }
+
+  private static boolean sets(Stmt.Function init, Symbol field) {
+    for (Stmt statement : init.body) {
+      Expr.Set set = (Expr.Set) ((Stmt.Expression) statement).expression;
+      if (set.name.symbol == field)
+        return true;
+    }
+    return false;
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Stmt.Var rewritten = (Stmt.Var) super.visitVarStmt(stmt);
+    Map<Symbol, Token> locals = scalars.get(stmt.name);
+    if (locals == null)
+      return rewritten;
+
+    Stmt.Function init = instances.get(stmt.name);
+    List<Token> fields = new ArrayList<>();
+    int[] arguments = new int[init.body.size()];
+    Object[] literals = new Object[init.body.size()];
+    for (int i = 0; i < init.body.size(); i++) {
+      Expr.Set set = (Expr.Set)
+          ((Stmt.Expression) init.body.get(i)).expression;
+      fields.add(locals.get(set.name.symbol));
+      if (set.value instanceof Expr.Literal) {
+        arguments[i] = -1;
+        literals[i] = ((Expr.Literal) set.value).value;
+      } else {
+        Symbol param = ((Expr.Variable) set.value).name.symbol;
+        while (init.params.get(arguments[i]).symbol != param) {
+          arguments[i]++;
+        }
+      }
+    }
+
+    replaced++;
+    return new ScalarInstance(rewritten.name, rewritten.initializer,
+        init.name, fields, arguments, literals);
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    Expr.Variable field = field(expr.object, expr.name);
+    if (field == null)
+      return super.visitGetExpr(expr);
+    return new ScalarInstance.Get(expr.object, expr.name, field);
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    Expr.Variable field = field(expr.object, expr.name);
+    if (field == null)
+      return super.visitSetExpr(expr);
+    return new ScalarInstance.Set(expr.object, expr.name,
+        expression(expr.value), field);
+  }
+
+  // The local for a field of an instance kept in locals, or null.
+  private Expr.Variable field(Expr object, Token name) {
+    if (!(object instanceof Expr.Variable))
+      return null;
+    Map<Symbol, Token> fields = scalars.get(
+        declaration(object, ((Expr.Variable) object).name));
+    if (fields == null)
+      return null;
+
+    Expr.Variable field = new Expr.Variable(fields.get(name.symbol));
+    field.depth = object.depth;
+    return field;
+  }
+
+  /*
+   * Finds the locals declared with a call to a class whose initializer
+   * only sets fields, and which of them are used other than to read and
+   * set those fields.
+   */
+  private class Uses extends Pass {
+    // each local, with its class's initializer
+    final Map<Token, Stmt.Function> instances = new HashMap<>();
+    final Set<Token> escaped = new HashSet<>();
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+      Stmt rewritten = super.visitVarStmt(stmt);
+      if (atTopLevel() || !(stmt.initializer instanceof Expr.Call))
+        return rewritten;
+
+      Expr.Call call = (Expr.Call) stmt.initializer;
+      if (!(call.callee instanceof Expr.Variable) || call.callee.depth >= 0)
+        return rewritten;
+      Stmt.Function init = initializer(
+          ((Expr.Variable) call.callee).name.symbol);
+      // With the wrong number of arguments the call fails.
+      if (init != null && init.params.size() == call.arguments.size())
+        instances.put(stmt.name, init);
+      return rewritten;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+      escape(declaration(expr, expr.name));
+      return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+      if (isField(expr.object, expr.name))
+        return expr;
+      return super.visitGetExpr(expr);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+      if (isField(expr.object, expr.name)) {
+        expression(expr.value);
+        return expr;
+      }
+      return super.visitSetExpr(expr);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+      escape(declaration(expr, expr.name));
+      return expr;
+    }
+
+    private void escape(Token name) {
+      if (name != null)
+        escaped.add(name);
+    }
+
+    // Whether this reads or sets a field the instance's initializer sets.
+    private boolean isField(Expr object, Token name) {
+      if (!(object instanceof Expr.Variable))
+        return false;
+      Stmt.Function init = instances.get(
+          declaration(object, ((Expr.Variable) object).name));
+      return init != null && sets(init, name.symbol);
+    }
+  }
+}
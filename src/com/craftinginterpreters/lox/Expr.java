@@ -213,6 +213,11 @@ abstract class Expr {
   }
 //< expr-variable
 
+  // For a variable, assignment, this or super: how many scopes out the
+  // Resolver found the variable, or -1 for a global. It is kept in the
+  // node, so it goes away with the tree.
+  int depth = -1;
+
   abstract <R> R accept(Visitor<R> visitor);
 }
 //< Appendix II expr
@@ -0,0 +1,367 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A resolved program packed into one int array (-Dlox.ast.flat=true),
+ * run by FlatInterpreter instead of the tree of Expr and Stmt objects.
+ *
+ * A node is its kind followed by its fields, laid out one after another
+ * in code[]; a node is referred to by the index of its kind. Children are
+ * node indices, lists are a count followed by that many children, and
+ * names and literal values are indices into constants[]. Each variable
+ * carries the depth the Resolver found for it. Groupings are dropped, and
+ * only nodes that can fail at runtime keep a line.
+ *
+ * The program is added one top-level declaration at a time, as soon as it
+ * has been parsed and resolved, so the object tree of only one declaration
+ * is alive at any point.
+ */
+class FlatAst {
+  static final boolean ENABLED = Boolean.getBoolean("lox.ast.flat");
+
+  // a missing child, and the depth of a global (as in Expr)
+  static final int NONE = -1;
+  static final int GLOBAL = -1;
+
+  // statements, with their fields
+  static final int BLOCK = 1; // count, statements...
+  static final int CLASS = 2; // name, superclass, count, methods...
+  static final int EXPRESSION = 3; // expression
+  static final int FUNCTION = 4; // name, count, parameters..., count, body...
+  static final int IF = 5; // condition, then, else
+  static final int PRINT = 6; // expression
+  static final int RETURN = 7; // value
+  static final int VAR = 8; // name, initializer
+  static final int WHILE = 9; // condition, body
+  static final int BREAK = 10;
+  static final int CONTINUE = 11;
+
+  // expressions, with their fields
+  static final int ASSIGN = 12; // line, name, depth, value
+  static final int BINARY = 13; // line, operator, left, right
+  static final int CALL = 14; // line, callee, count, arguments...
+  static final int GET = 15; // line, name, object
+  static final int LITERAL = 16; // value
+  static final int AND = 17; // left, right
+  static final int OR = 18; // left, right
+  static final int SET = 19; // line, name, object, value
+  static final int SUPER = 20; // line, method, depth
+  static final int THIS = 21; // line, depth
+  static final int NOT = 22; // operand
+  static final int NEGATE = 23; // line, operand
+  static final int VARIABLE = 24; // line, name, depth
+
+  private static int totalCode = 0;
+  private static int totalConstants = 0;
+
+  int[] code = new int[1024];
+  int size = 0;
+  Object[] constants = new Object[64];
+  int constantCount = 0;
+  // the top-level statements, in order
+  int[] program = new int[64];
+  int programSize = 0;
+
+  private final Builder builder = new Builder();
+
+  void add(Stmt statement) {
+    int node = statement.accept(builder);
+    if (programSize == program.length)
+      program = Arrays.copyOf(program, programSize * 2);
+    program[programSize++] = node;
+  }
+
+  // Drops the spare room once the whole program is in.
+  void trim() {
+    totalCode += size;
+    totalConstants += constantCount;
+    code = Arrays.copyOf(code, size);
+    constants = Arrays.copyOf(constants, constantCount);
+    program = Arrays.copyOf(program, programSize);
+    builder.values.clear();
+  }
+
+  static String report() {
+    return "flat ast: " + totalCode + " ints of code, " + totalConstants +
+        " constants";
+  }
+
+  private int node(int kind) {
+    return put(kind);
+  }
+
+  private int put(int value) {
+    if (size == code.length)
+      code = Arrays.copyOf(code, size * 2);
+    code[size] = value;
+    return size++;
+  }
+
+  private void list(int[] nodes) {
+    put(nodes.length);
+    for (int node : nodes)
+      put(node);
+  }
+
+  /*
+   * Children are flattened before their parent, which is then written with
+   * their indices.
+   */
+  private class Builder implements Expr.Visitor<Integer>,
+      Stmt.Visitor<Integer> {
+    // the constant index of each value already in the pool
+    private final Map<Object, Integer> values = new HashMap<>();
+
+    private int flatten(Expr expr) {
+      return expr == null ? NONE : expr.accept(this);
+    }
+
+    private int flatten(Stmt stmt) {
+      return stmt == null ? NONE : stmt.accept(this);
+    }
+
+    private int[] statements(List<Stmt> statements) {
+      int[] nodes = new int[statements.size()];
+      for (int i = 0; i < nodes.length; i++)
+        nodes[i] = flatten(statements.get(i));
+      return nodes;
+    }
+
+    private int constant(Object value) {
+      Integer index = values.get(value);
+      if (index != null)
+        return index;
+
+      if (constantCount == constants.length)
+        constants = Arrays.copyOf(constants, constantCount * 2);
+      constants[constantCount] = value;
+      values.put(value, constantCount);
+      return constantCount++;
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+      int[] statements = statements(stmt.statements);
+      int node = node(BLOCK);
+      list(statements);
+      return node;
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+      int superclass = flatten(stmt.superclass);
+      int[] methods = new int[stmt.methods.size()];
+      for (int i = 0; i < methods.length; i++)
+        methods[i] = flatten(stmt.methods.get(i));
+
+      int node = node(CLASS);
+      put(constant(stmt.name.symbol));
+      put(superclass);
+      list(methods);
+      return node;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+      int expression = flatten(stmt.expression);
+      int node = node(EXPRESSION);
+      put(expression);
+      return node;
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+      int[] body = statements(stmt.body);
+      int node = node(FUNCTION);
+      put(constant(stmt.name.symbol));
+      put(stmt.params.size());
+      for (Token param : stmt.params)
+        put(constant(param.symbol));
+      list(body);
+      return node;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+      int condition = flatten(stmt.condition);
+      int thenBranch = flatten(stmt.thenBranch);
+      int elseBranch = flatten(stmt.elseBranch);
+      int node = node(IF);
+      put(condition);
+      put(thenBranch);
+      put(elseBranch);
+      return node;
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+      int expression = flatten(stmt.expression);
+      int node = node(PRINT);
+      put(expression);
+      return node;
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+      int value = flatten(stmt.value);
+      int node = node(RETURN);
+      put(value);
+      return node;
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+      int initializer = flatten(stmt.initializer);
+      int node = node(VAR);
+      put(constant(stmt.name.symbol));
+      put(initializer);
+      return node;
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+      int condition = flatten(stmt.condition);
+      int body = flatten(stmt.body);
+      int node = node(WHILE);
+      put(condition);
+      put(body);
+      return node;
+    }
+
+    @Override
+    public Integer visitBreakStmt(Stmt.Break stmt) {
+      return node(BREAK);
+    }
+
+    @Override
+    public Integer visitContinueStmt(Stmt.Continue stmt) {
+      return node(CONTINUE);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+      int value = flatten(expr.value);
+      int node = node(ASSIGN);
+      put(expr.name.line);
+      put(constant(expr.name.symbol));
+      put(expr.depth);
+      put(value);
+      return node;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+      int left = flatten(expr.left);
+      int right = flatten(expr.right);
+      int node = node(BINARY);
+      put(expr.operator.line);
+      put(expr.operator.type.ordinal());
+      put(left);
+      put(right);
+      return node;
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+      int callee = flatten(expr.callee);
+      int[] arguments = new int[expr.arguments.size()];
+      for (int i = 0; i < arguments.length; i++)
+        arguments[i] = flatten(expr.arguments.get(i));
+
+      int node = node(CALL);
+      put(expr.paren.line);
+      put(callee);
+      list(arguments);
+      return node;
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+      int object = flatten(expr.object);
+      int node = node(GET);
+      put(expr.name.line);
+      put(constant(expr.name.symbol));
+      put(object);
+      return node;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+      return flatten(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+      int node = node(LITERAL);
+      put(constant(expr.value));
+      return node;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+      int left = flatten(expr.left);
+      int right = flatten(expr.right);
+      int node = node(expr.operator.type == TokenType.OR ? OR : AND);
+      put(left);
+      put(right);
+      return node;
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+      int object = flatten(expr.object);
+      int value = flatten(expr.value);
+      int node = node(SET);
+      put(expr.name.line);
+      put(constant(expr.name.symbol));
+      put(object);
+      put(value);
+      return node;
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+      int node = node(SUPER);
+      put(expr.method.line);
+      put(constant(expr.method.symbol));
+      put(expr.depth);
+      return node;
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+      int node = node(THIS);
+      put(expr.keyword.line);
+      put(expr.depth);
+      return node;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+      int operand = flatten(expr.right);
+      if (expr.operator.type == TokenType.BANG) {
+        int node = node(NOT);
+        put(operand);
+        return node;
+      }
+
+      int node = node(NEGATE);
+      put(expr.operator.line);
+      put(operand);
+      return node;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+      int node = node(VARIABLE);
+      put(expr.name.line);
+      put(constant(expr.name.symbol));
+      put(expr.depth);
+      return node;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A function or method declared by a FUNCTION node of a FlatAst.
+class FlatFunction extends LoxFunction {
+  private final FlatInterpreter interpreter;
+  private final int declaration;
+
+  FlatFunction(FlatInterpreter interpreter, int declaration,
+      Environment closure, boolean isInitializer) {
+    super(closure, isInitializer);
+    this.interpreter = interpreter;
+    this.declaration = declaration;
+  }
+
+  @Override
+  LoxFunction bind(LoxInstance instance) {
+    Environment environment = new Environment(closure);
+    environment.define(Symbol.THIS, instance);
+    return new FlatFunction(interpreter, declaration, environment,
+        isInitializer);
+  }
+
+  @Override
+  public String toString() {
+    return "<fn " + interpreter.symbol(declaration + 1).name + ">";
+  }
+
+  @Override
+  public int arity() {
+    return interpreter.code[declaration + 2];
+  }
+
+  @Override
+  public Object call(Interpreter unused, List<Object> arguments) {
+    int[] code = interpreter.code;
+    int parameters = code[declaration + 2];
+    Environment environment = new Environment(closure);
+    for (int i = 0; i < parameters; i++) {
+      environment.define(interpreter.symbol(declaration + 3 + i),
+          arguments.get(i));
+    }
+
+    try {
+      // The body follows the parameters.
+      interpreter.executeBlock(declaration + 3 + parameters, environment);
+    } catch (Return returnValue) {
+      if (isInitializer)
+        return closure.getAt(0, Symbol.THIS);
+
+      return returnValue.value;
+    }
+
+    if (isInitializer)
+      return closure.getAt(0, Symbol.THIS);
+    return null;
+  }
+}
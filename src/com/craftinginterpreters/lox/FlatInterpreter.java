@@ -0,0 +1,297 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.FlatAst.*;
+
+/*
+ * Runs a FlatAst. It does what the Interpreter does for each kind of node,
+ * switching on the kind in code[] instead of visiting objects, and it
+ * shares the Interpreter's globals, output, operators and break/continue
+ * flags, so a program behaves the same either way.
+ */
+class FlatInterpreter {
+  private static final TokenType[] TYPES = TokenType.values();
+
+  final int[] code;
+  private final Object[] constants;
+  private final int[] program;
+  private final Interpreter interpreter;
+  private Environment environment;
+
+  FlatInterpreter(FlatAst ast, Interpreter interpreter) {
+    ast.trim();
+    this.code = ast.code;
+    this.constants = ast.constants;
+    this.program = ast.program;
+    this.interpreter = interpreter;
+    this.environment = interpreter.globals;
+  }
+
+  void interpret() {
+    try {
+      for (int statement : program) {
+        execute(statement);
+      }
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    } finally {
+      interpreter.ranProgram();
+    }
+  }
+
+  private void execute(int node) {
+    switch (code[node]) {
+      case BLOCK:
+        executeBlock(node + 1, new Environment(environment));
+        return;
+      case CLASS:
+        defineClass(node);
+        return;
+      case EXPRESSION:
+        evaluate(code[node + 1]);
+        return;
+      case FUNCTION:
+        environment.define(symbol(node + 1),
+            new FlatFunction(this, node, environment, false));
+        return;
+      case IF:
+        if (Interpreter.isTruthy(evaluate(code[node + 1]))) {
+          execute(code[node + 2]);
+        } else if (code[node + 3] != NONE) {
+          execute(code[node + 3]);
+        }
+        return;
+      case PRINT:
+        interpreter.print(evaluate(code[node + 1]));
+        return;
+      case RETURN: {
+        Object value = null;
+        if (code[node + 1] != NONE)
+          value = evaluate(code[node + 1]);
+        throw new Return(value);
+      }
+      case VAR: {
+        Object value = null;
+        if (code[node + 2] != NONE)
+          value = evaluate(code[node + 2]);
+        environment.define(symbol(node + 1), value);
+        return;
+      }
+      case WHILE:
+        while (Interpreter.isTruthy(evaluate(code[node + 1]))) {
+          execute(code[node + 2]);
+        }
+        return;
+      case BREAK:
+        interpreter.shouldBreak = true;
+        return;
+      case CONTINUE:
+        interpreter.shouldContinue = true;
+        return;
+      default:
+        throw new IllegalStateException("Not a statement: " + code[node]);
+    }
+  }
+
+  // Runs the statement list that starts with its count at list.
+  void executeBlock(int list, Environment environment) {
+    Environment previous = this.environment;
+    try {
+      this.environment = environment;
+
+      int count = code[list];
+      for (int i = 1; i <= count; i++) {
+        if (interpreter.shouldBreak) {
+          break;
+        }
+        if (interpreter.shouldContinue) {
+          interpreter.shouldContinue = false;
+          continue;
+        }
+        execute(code[list + i]);
+      }
+    } finally {
+      this.environment = previous;
+    }
+  }
+
+  private void defineClass(int node) {
+    int superclassNode = code[node + 2];
+    Object superclass = null;
+    if (superclassNode != NONE) {
+      superclass = evaluate(superclassNode);
+      if (!(superclass instanceof LoxClass)) {
+        throw new RuntimeError(name(superclassNode + 2, code[superclassNode + 1]),
+            "Superclass must be a class.");
+      }
+    }
+
+    Symbol name = symbol(node + 1);
+    environment.define(name, null);
+
+    if (superclassNode != NONE) {
+      environment = new Environment(environment);
+      environment.define(Symbol.SUPER, superclass);
+    }
+
+    Map<Symbol, LoxFunction> methods = new HashMap<>();
+    int count = code[node + 3];
+    for (int i = 1; i <= count; i++) {
+      int method = code[node + 3 + i];
+      Symbol methodName = symbol(method + 1);
+      methods.put(methodName, new FlatFunction(this, method, environment,
+          methodName == Symbol.INIT));
+    }
+
+    LoxClass klass = new LoxClass(name.name, (LoxClass) superclass, methods);
+
+    if (superclass != null) {
+      environment = environment.enclosing;
+    }
+
+    // It was defined just above, right here.
+    environment.define(name, klass);
+  }
+
+  private Object evaluate(int node) {
+    switch (code[node]) {
+      case ASSIGN: {
+        Object value = evaluate(code[node + 4]);
+        int depth = code[node + 3];
+        if (depth != GLOBAL) {
+          environment.assignAt(depth, symbol(node + 2), value);
+        } else {
+          interpreter.globals.assign(symbol(node + 2), code[node + 1], value);
+        }
+        return value;
+      }
+      case BINARY: {
+        Object left = evaluate(code[node + 3]);
+        Object right = evaluate(code[node + 4]);
+        return Interpreter.binary(TYPES[code[node + 2]], code[node + 1], left,
+            right);
+      }
+      case CALL:
+        return call(node);
+      case GET: {
+        Object object = evaluate(code[node + 3]);
+        if (object instanceof LoxInstance) {
+          return ((LoxInstance) object).get(symbol(node + 2), code[node + 1]);
+        }
+
+        throw new RuntimeError(name(node + 2, code[node + 1]),
+            "Only instances have properties.");
+      }
+      case LITERAL:
+        return constants[code[node + 1]];
+      case AND: {
+        Object left = evaluate(code[node + 1]);
+        if (!Interpreter.isTruthy(left))
+          return left;
+        return evaluate(code[node + 2]);
+      }
+      case OR: {
+        Object left = evaluate(code[node + 1]);
+        if (Interpreter.isTruthy(left))
+          return left;
+        return evaluate(code[node + 2]);
+      }
+      case SET: {
+        Object object = evaluate(code[node + 3]);
+        if (!(object instanceof LoxInstance)) {
+          throw new RuntimeError(name(node + 2, code[node + 1]),
+              "Only instances have fields.");
+        }
+
+        Object value = evaluate(code[node + 4]);
+        ((LoxInstance) object).set(symbol(node + 2), value);
+        return value;
+      }
+      case SUPER:
+        return superMethod(node);
+      case THIS:
+        return lookUpVariable(Symbol.THIS, code[node + 1], code[node + 2]);
+      case NOT:
+        return !Interpreter.isTruthy(evaluate(code[node + 1]));
+      case NEGATE:
+        return Interpreter.unary(TokenType.MINUS, code[node + 1],
+            evaluate(code[node + 2]));
+      case VARIABLE:
+        return lookUpVariable(symbol(node + 2), code[node + 1], code[node + 3]);
+      default:
+        throw new IllegalStateException("Not an expression: " + code[node]);
+    }
+  }
+
+  private Object call(int node) {
+    Object callee = evaluate(code[node + 2]);
+
+    int count = code[node + 3];
+    List<Object> arguments = new ArrayList<>(count);
+    for (int i = 1; i <= count; i++) {
+      arguments.add(evaluate(code[node + 3 + i]));
+    }
+
+    int line = code[node + 1];
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(new Token(TokenType.RIGHT_PAREN, ")", null, line),
+          "Can only call functions and classes.");
+    }
+
+    LoxCallable function = (LoxCallable) callee;
+    if (count != function.arity()) {
+      throw new RuntimeError(new Token(TokenType.RIGHT_PAREN, ")", null, line),
+          "Expected " + function.arity() + " arguments but got " + count + ".");
+    }
+
+    if (function instanceof LoxFunction || function instanceof LoxClass)
+      return function.call(interpreter, arguments);
+    try {
+      return function.call(interpreter, arguments);
+    } catch (RuntimeError error) {
+      // As in the Interpreter, a native's error is blamed on the call.
+      if (error.token != null)
+        throw error;
+      throw new RuntimeError(new Token(TokenType.RIGHT_PAREN, ")", null, line),
+          error.getMessage());
+    }
+  }
+
+  private Object superMethod(int node) {
+    int distance = code[node + 3];
+    LoxClass superclass = (LoxClass) environment.getAt(distance, Symbol.SUPER);
+    LoxInstance object = (LoxInstance) environment.getAt(distance - 1,
+        Symbol.THIS);
+
+    Symbol name = symbol(node + 2);
+    LoxFunction method = superclass.findMethod(name);
+    if (method == null) {
+      throw new RuntimeError(name(node + 2, code[node + 1]),
+          "Undefined property '" + name.name + "'.");
+    }
+
+    return method.bind(object);
+  }
+
+  private Object lookUpVariable(Symbol name, int line, int depth) {
+    if (depth != GLOBAL) {
+      return environment.getAt(depth, name);
+    } else {
+      return interpreter.globals.get(name, line);
+    }
+  }
+
+  Symbol symbol(int field) {
+    return (Symbol) constants[code[field]];
+  }
+
+  // A token for the name at field to blame in an error.
+  private Token name(int field, int line) {
+    Symbol symbol = symbol(field);
+    return new Token(TokenType.IDENTIFIER, symbol.name, null, line, symbol);
+  }
+}
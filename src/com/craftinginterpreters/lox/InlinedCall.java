@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/*
+ * A call that the Inliner has given a copy of the callee's body, with the
+ * arguments in place of the parameters. It is still a Call, so code that
+ * knows nothing of inlining sees the ordinary call, and the Interpreter
+ * makes that call whenever the callee is no longer the function that was
+ * inlined.
+ */
+class InlinedCall extends Expr.Call {
+  static int missed = 0;
+
+  // the name the inlined function was declared with
+  final Token function;
+  final Expr body;
+
+  InlinedCall(Expr callee, Token paren, List<Expr> arguments, Token function,
+      Expr body) {
+    super(callee, paren, arguments);
+    this.function = function;
+    this.body = body;
+  }
+}
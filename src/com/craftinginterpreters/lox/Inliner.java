@@ -0,0 +1,278 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Inlines calls to small global functions: those whose whole body returns
+ * an expression that reads only its parameters and globals, and makes no
+ * calls, assignments or property sets. Such a function cannot recurse. A
+ * call that names one as a global and passes the right number of
+ * arguments becomes an InlinedCall. The Interpreter still looks the callee
+ * up and checks it is that same function, so reassigning the global or
+ * declaring the function again falls back to an ordinary call.
+ *
+ * Putting an argument in for its parameter must not change what is
+ * evaluated or in what order:
+ *  - A literal, local or "this" may be read any number of times, or not
+ *    at all.
+ *  - A global can fail if it is not defined. It must be read at least
+ *    once, and before anything in the body that could fail.
+ *  - Any other argument must be read exactly once, also before anything
+ *    that could fail.
+ * The arguments of the last two kinds must be read in their order in the
+ * call. If any argument has side effects, every argument is of the last
+ * kind.
+ *
+ * A call may also name a function that an earlier program declared, such
+ * as an earlier REPL line or streamed declaration, and that its global
+ * still holds.
+ */
+class Inliner extends Pass {
+  static int inlined = 0;
+
+  // the inlinable functions declared at top level in this program, by name
+  private final Map<Symbol, Stmt.Function> functions = new HashMap<>();
+  // every name declared at top level in this program
+  private final Set<Symbol> declared = new HashSet<>();
+
+  // how an argument may be put in for its parameter
+  private static final int ANY = 0;
+  private static final int AT_LEAST_ONCE = 1;
+  private static final int ONCE = 2;
+
+  @Override
+  List<Stmt> run(List<Stmt> statements) {
+    // A name declared twice here could be either when a call runs.
+    for (Stmt statement : statements) {
+      Token name = declaredName(statement);
+      if (name == null)
+        continue;
+
+      functions.remove(name.symbol);
+      if (declared.add(name.symbol) && statement instanceof Stmt.Function &&
+          returnedExpression((Stmt.Function) statement) != null)
+        functions.put(name.symbol, (Stmt.Function) statement);
+    }
+    return super.run(statements);
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    // Inner calls first, so they can be inlined into the arguments.
+    Expr rewritten = super.visitCallExpr(expr);
+    if (rewritten instanceof InlinedCall)
+      return rewritten;
+
+    Expr.Call call = (Expr.Call) rewritten;
+    if (!(call.callee instanceof Expr.Variable) || call.callee.depth >= 0)
+      return rewritten;
+    Stmt.Function function =
+        function(((Expr.Variable) call.callee).name.symbol);
+    if (function == null ||
+        function.params.size() != call.arguments.size())
+      return rewritten;
+
+    Expr body = new Substitution(function, call.arguments)
+        .substitute(returnedExpression(function));
+    if (body == null)
+      return rewritten;
+
+    inlined++;
+    return new InlinedCall(call.callee, call.paren, call.arguments,
+        function.name, body);
+  }
+
+  // The inlinable function a global names, or null.
+  private Stmt.Function function(Symbol name) {
+    if (declared.contains(name))
+      return functions.get(name);
+    Stmt.Function function = earlierFunction(name);
+    return function != null && returnedExpression(function) != null
+        ? function : null;
+  }
+
+  // What the function returns, if it can be inlined.
+  private static Expr returnedExpression(Stmt.Function function) {
+    if (function.body instanceof LazyBody || function.body.size() != 1 ||
+        !(function.body.get(0) instanceof Stmt.Return))
+      return null;
+
+    Expr value = ((Stmt.Return) function.body.get(0)).value;
+    return value != null && inlinable(value) ? value : null;
+  }
+
+  private static boolean inlinable(Expr expr) {
+    if (expr instanceof Expr.Literal)
+      return true;
+    if (expr instanceof Expr.Variable)
+      return expr.depth <= 0;
+    if (expr instanceof Expr.Binary) {
+      return inlinable(((Expr.Binary) expr).left) &&
+          inlinable(((Expr.Binary) expr).right);
+    }
+    if (expr instanceof Expr.Logical) {
+      return inlinable(((Expr.Logical) expr).left) &&
+          inlinable(((Expr.Logical) expr).right);
+    }
+    if (expr instanceof Expr.Unary)
+      return inlinable(((Expr.Unary) expr).right);
+    if (expr instanceof Expr.Grouping)
+      return inlinable(((Expr.Grouping) expr).expression);
+    if (expr instanceof Expr.Get)
+      return inlinable(((Expr.Get) expr).object);
+    return false;
+  }
+
+  // Whether evaluating expr cannot do anything but give a value or fail.
+  private static boolean sideEffectFree(Expr expr) {
+    if (expr instanceof Expr.Literal || expr instanceof Expr.Variable ||
+        expr instanceof Expr.This)
+      return true;
+    if (expr instanceof Expr.Binary) {
+      return sideEffectFree(((Expr.Binary) expr).left) &&
+          sideEffectFree(((Expr.Binary) expr).right);
+    }
+    if (expr instanceof Expr.Logical) {
+      return sideEffectFree(((Expr.Logical) expr).left) &&
+          sideEffectFree(((Expr.Logical) expr).right);
+    }
+    if (expr instanceof Expr.Unary)
+      return sideEffectFree(((Expr.Unary) expr).right);
+    if (expr instanceof Expr.Grouping)
+      return sideEffectFree(((Expr.Grouping) expr).expression);
+    if (expr instanceof Expr.Get)
+      return sideEffectFree(((Expr.Get) expr).object);
+    return false;
+  }
+
+  /*
+   * Copies a function's returned expression with the arguments of one call
+   * in place of the parameters, walking it in the order the Interpreter
+   * evaluates it to check the rules above. It folds as it goes, since an
+   * operation on literals cannot fail.
+   */
+  private static class Substitution extends ConstantFolder {
+    private final List<Token> params;
+    private final List<Expr> arguments;
+    private final int[] kinds;
+    private final int[] reads;
+    // the arguments that still have to be read, in order
+    private final Deque<Integer> pending = new ArrayDeque<>();
+    private boolean ordered = true;
+
+    Substitution(Stmt.Function function, List<Expr> arguments) {
+      this.params = function.params;
+      this.arguments = arguments;
+      this.kinds = new int[arguments.size()];
+      this.reads = new int[arguments.size()];
+
+      boolean effects = false;
+      for (Expr argument : arguments) {
+        effects |= !sideEffectFree(argument);
+      }
+      for (int i = 0; i < kinds.length; i++) {
+        Expr argument = arguments.get(i);
+        if (effects) {
+          kinds[i] = ONCE;
+        } else if (argument instanceof Expr.Literal ||
+            argument instanceof Expr.This ||
+            argument instanceof Expr.Variable && argument.depth >= 0) {
+          kinds[i] = ANY;
+        } else if (argument instanceof Expr.Variable) {
+          kinds[i] = AT_LEAST_ONCE;
+        } else {
+          kinds[i] = ONCE;
+        }
+        if (kinds[i] != ANY)
+          pending.add(i);
+      }
+    }
+
+    // The copy, or null if it would not behave as the call does.
+    Expr substitute(Expr body) {
+      Expr copy = expression(body);
+      if (!ordered || !pending.isEmpty())
+        return null;
+      for (int i = 0; i < kinds.length; i++) {
+        if (kinds[i] == ONCE && reads[i] != 1)
+          return null;
+      }
+      return copy;
+    }
+
+    // Something in the body that can fail is about to be evaluated.
+    private void mayFail() {
+      if (!pending.isEmpty())
+        ordered = false;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+      Expr rewritten = super.visitBinaryExpr(expr);
+      if (!(rewritten instanceof Expr.Literal))
+        mayFail();
+      return rewritten;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+      Expr rewritten = super.visitGetExpr(expr);
+      mayFail();
+      return rewritten;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+      Expr left = expression(expr.left);
+      if (left instanceof Expr.Literal) {
+        boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+        if (expr.operator.type == TokenType.OR ? truthy : !truthy)
+          return left;
+        return expression(expr.right);
+      }
+
+      // Whether the right operand runs depends on the left, so it counts
+      // as failing too.
+      mayFail();
+      Expr right = expression(expr.right);
+      return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+      Expr rewritten = super.visitUnaryExpr(expr);
+      if (!(rewritten instanceof Expr.Literal) &&
+          expr.operator.type == TokenType.MINUS)
+        mayFail();
+      return rewritten;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+      if (expr.depth < 0) {
+        mayFail();
+        return expr;
+      }
+
+      int index = 0;
+      while (params.get(index).symbol != expr.name.symbol) {
+        index++;
+      }
+      reads[index]++;
+      if (kinds[index] != ANY && reads[index] == 1) {
+        if (pending.isEmpty() || pending.peek() != index) {
+          ordered = false;
+        } else {
+          pending.poll();
+        }
+      }
+      return arguments.get(index);
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/*
+ * The one reader over stdin. The REPL and every input native share it, so
+ * text buffered for one caller is never lost to another, and stdin is read
+ * in large blocks instead of a line (or a byte) at a time.
+ */
+class InputReader {
+  static final int BLOCK_SIZE = 1 << 16;
+
+  private static InputReader stdin;
+
+  private final BufferedReader reader;
+
+  InputReader(Reader source) {
+    this.reader = new BufferedReader(source, BLOCK_SIZE);
+  }
+
+  static synchronized InputReader stdin() {
+    if (stdin == null) {
+      stdin = new InputReader(
+          new InputStreamReader(System.in, Charset.defaultCharset()));
+    }
+    return stdin;
+  }
+
+  // Only prompt a human; a pipe or a file gets no prompt text mixed in.
+  static boolean isInteractive() {
+    return System.console() != null;
+  }
+
+  // Returns the next line without its terminator, or null at end of input.
+  String readLine() {
+    try {
+      return reader.readLine();
+    } catch (IOException error) {
+      throw new RuntimeError(null, "Could not read input: " + error.getMessage());
+    }
+  }
+
+  // Returns everything up to end of input, "" when nothing is left.
+  String readAll() {
+    StringBuilder builder = new StringBuilder();
+    char[] block = new char[BLOCK_SIZE];
+    try {
+      int count;
+      while ((count = reader.read(block)) != -1) {
+        builder.append(block, 0, count);
+      }
+    } catch (IOException error) {
+      throw new RuntimeError(null, "Could not read input: " + error.getMessage());
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,154 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Canonicalizes Lox strings so equal strings share one object. String
+ * literals from the Scanner are always interned; strings built at runtime
+ * are interned only when they are short, since long ones are rarely
+ * repeated and hashing them costs more than the copy saves.
+ *
+ * The pool holds its strings weakly: a canonical string disappears from the
+ * pool once no Lox value refers to it any more. It takes no lock, since the
+ * ParallelScanner's threads intern literals while the interpreter interns
+ * the strings it builds.
+ */
+class Interner {
+  // Longest runtime string (in chars) that is worth interning.
+  static final int MAX_RUNTIME_LENGTH = Integer.getInteger("lox.intern.maxLength", 32);
+
+  // each canonical string's key maps to itself
+  private static final ConcurrentHashMap<Text, Key> pool = new ConcurrentHashMap<>();
+  // the keys whose strings have been collected
+  private static final ReferenceQueue<String> collected = new ReferenceQueue<>();
+
+  private static final LongAdder lookups = new LongAdder();
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder bytesSaved = new LongAdder();
+
+  private Interner() {
+  }
+
+  // used for literals, which live as long as the AST anyway
+  static String intern(String text) {
+    lookups.increment();
+    expunge();
+
+    // Look up with a plain probe first, so a hit makes no reference.
+    Key key = pool.get(new Probe(text));
+    String canonical = key == null ? null : key.get();
+    while (canonical == null) {
+      Key added = new Key(text, collected);
+      key = pool.putIfAbsent(added, added);
+      if (key == null)
+        return text;
+      // Another thread added it, or it was collected in the meantime.
+      canonical = key.get();
+    }
+
+    hits.increment();
+    bytesSaved.add(footprint(canonical));
+    return canonical;
+  }
+
+  private static void expunge() {
+    Reference<? extends String> key;
+    while ((key = collected.poll()) != null) {
+      pool.remove(key, key);
+    }
+  }
+
+  // A string the pool can be looked up by: a key, or a probe for one.
+  private interface Text {
+    String text();
+  }
+
+  private static final class Key extends WeakReference<String> implements Text {
+    private final int hash;
+
+    Key(String text, ReferenceQueue<String> queue) {
+      super(text, queue);
+      this.hash = text.hashCode();
+    }
+
+    @Override
+    public String text() {
+      return get();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    // A collected key is equal only to itself, so it can still be removed.
+    @Override
+    public boolean equals(Object other) {
+      if (other == this)
+        return true;
+      String text = get();
+      return text != null && other instanceof Text &&
+          text.equals(((Text) other).text());
+    }
+  }
+
+  private static final class Probe implements Text {
+    private final String text;
+
+    Probe(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public String text() {
+      return text;
+    }
+
+    @Override
+    public int hashCode() {
+      return text.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Text && text.equals(((Text) other).text());
+    }
+  }
+
+  // used for strings produced by concatenation and input
+  static String internRuntime(String text) {
+    if (text.length() > MAX_RUNTIME_LENGTH)
+      return text;
+    return intern(text);
+  }
+
+  /*
+   * Rough size of a duplicate we no longer keep alive: String header and
+   * fields plus the backing array header, with one byte per char for
+   * compact (Latin-1) strings and two otherwise.
+   */
+  private static long footprint(String text) {
+    int bytesPerChar = 1;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) > 0xFF) {
+        bytesPerChar = 2;
+        break;
+      }
+    }
+
+    return 24 + 16 + (long) text.length() * bytesPerChar;
+  }
+
+  static String report() {
+    expunge();
+    long lookups = Interner.lookups.sum();
+    long hits = Interner.hits.sum();
+    double hitRate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+    return String.format("intern: %d lookups, %d hits (%.1f%%), ~%d bytes saved, %d live",
+        lookups, hits, hitRate, bytesSaved.sum(), pool.size());
+  }
+}
@@ -12,10 +12,9 @@ import java.util.List;
 //< Statements and State import-list
 //> Resolving and Binding import-map
 import java.util.Map;
+import java.util.function.Supplier;
 //< Resolving and Binding import-map
 
-import java.util.Scanner;
-
 import com.craftinginterpreters.lox.Stmt.Break;
 
 /* Evaluating Expressions interpreter-class < Statements and State interpreter
@@ -34,8 +33,11 @@ class Interpreter implements Expr.Visitor<Object>,
   private Environment environment = globals;
   // < Functions global-environment
   // > Resolving and Binding locals-field
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  // The Resolver's depths are kept in the Expr nodes themselves, so they
+  // are collected along with trees that are no longer used.
   // < Resolving and Binding locals-field
+  // where print statements write to
+  private OutputSink output = OutputSink.console();
   // > Statements and State environment-field
 
   // handle break statement
@@ -44,6 +46,14 @@ class Interpreter implements Expr.Visitor<Object>,
   // handle continue statement
   boolean shouldContinue = false;
 
+  /*
+   * Set by the Resolver for each break or continue it sees. The flags they
+   * set outlive their loop, so one in a function body can derail whatever
+   * program calls it later, and one at top level whatever runs after it.
+   */
+  boolean breaksInFunctions = false;
+  boolean breaksAtTopLevel = false;
+
   // < Statements and State environment-field
   // > Functions interpreter-constructor
   public void defineNativeFunctions() {
@@ -74,9 +84,114 @@ class Interpreter implements Expr.Visitor<Object>,
 
       @Override
       public Object call(Interpreter interpreter, List<Object> arguments) {
-        Scanner scanner = new Scanner(System.in);
-        System.out.print("Enter a value: ");
-        return scanner.nextLine();
+        InputReader input = interpreter.stdin();
+        if (InputReader.isInteractive()) {
+          System.out.print("Enter a value: ");
+          System.out.flush();
+        }
+        String line = input.readLine();
+        if (line == null)
+          return null;
+        return Interner.internRuntime(line);
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+
+    // next line of stdin, or nil at the end of input
+    globals.define("readLine", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 0;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return interpreter.stdin().readLine();
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+
+    // the rest of stdin as one string
+    globals.define("readAll", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 0;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return interpreter.stdin().readAll();
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+
+    // lines() returns an iterator: each call of it yields the next line of
+    // stdin, then nil once the input is exhausted.
+    globals.define("lines", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 0;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return lineIterator(() -> interpreter.stdin().readLine());
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+
+    // mapLines(path) iterates over the lines of a file through a memory
+    // mapping, so the file is never loaded into memory as a whole.
+    globals.define("mapLines", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        String path = checkString(arguments.get(0), "File path");
+        return lineIterator(new MappedRecords(path, '\n')::next);
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+
+    // mapRecords(path, delimiter) does the same for single-character
+    // delimited records.
+    globals.define("mapRecords", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        String path = checkString(arguments.get(0), "File path");
+        String delimiter = checkString(arguments.get(1), "Record delimiter");
+        if (delimiter.length() != 1) {
+          throw new RuntimeError(null, "Record delimiter must be one character.");
+        }
+        return lineIterator(new MappedRecords(path, delimiter.charAt(0))::next);
       }
 
       @Override
@@ -86,10 +201,59 @@ class Interpreter implements Expr.Visitor<Object>,
     });
   }
 
+  private static String checkString(Object value, String what) {
+    if (value instanceof String)
+      return (String) value;
+    throw new RuntimeError(null, what + " must be a string.");
+  }
+
+  private static LoxCallable lineIterator(Supplier<String> next) {
+    return new LoxCallable() {
+      @Override
+      public int arity() {
+        return 0;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return next.get();
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn lines>";
+      }
+    };
+  }
+
   Interpreter() {
     defineNativeFunctions();
   }
 
+  /*
+   * Stdin, for a native that is about to read it. What has been printed so
+   * far is flushed first, since the script may be prompting for what it
+   * reads, and whoever answers has to see the prompt.
+   */
+  InputReader stdin() {
+    flushOutput();
+    return InputReader.stdin();
+  }
+
+  void setOutput(OutputSink output) {
+    this.output.flush();
+    this.output = output;
+  }
+
+  void flushOutput() {
+    try {
+      output.flush();
+    } catch (RuntimeError error) {
+      // An Async sink throws a write that failed on its thread here.
+      Lox.runtimeError(error);
+    }
+  }
+
   // < Functions interpreter-constructor
   /*
    * Evaluating Expressions interpret < Statements and State interpret
@@ -110,9 +274,26 @@ class Interpreter implements Expr.Visitor<Object>,
       }
     } catch (RuntimeError error) {
       Lox.runtimeError(error);
+    } finally {
+      ranProgram();
     }
   }
 
+  // A top-level break that has not set its flag by now never will.
+  void ranProgram() {
+    breaksAtTopLevel = false;
+  }
+
+  /*
+   * Whether a break or continue flag may be set while the next program
+   * runs, other than by a break or continue in that program itself. The
+   * Optimizer leaves such a program alone.
+   */
+  boolean mayBreak() {
+    return shouldBreak || shouldContinue || breaksInFunctions ||
+        breaksAtTopLevel;
+  }
+
   // < Statements and State interpret
   // > evaluate
   private Object evaluate(Expr expr) {
@@ -134,7 +315,7 @@ class Interpreter implements Expr.Visitor<Object>,
   // < Statements and State execute
   // > Resolving and Binding resolve
   void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+    expr.depth = depth;
   }
 
   // < Resolving and Binding resolve
@@ -185,17 +366,17 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     // < Inheritance interpret-superclass
-    environment.define(stmt.name.lexeme, null);
+    environment.define(stmt.name.symbol, null);
     // > Inheritance begin-superclass-environment
 
     if (stmt.superclass != null) {
       environment = new Environment(environment);
-      environment.define("super", superclass);
+      environment.define(Symbol.SUPER, superclass);
     }
     // < Inheritance begin-superclass-environment
     // > interpret-methods
 
-    Map<String, LoxFunction> methods = new HashMap<>();
+    Map<Symbol, LoxFunction> methods = new HashMap<>();
     for (Stmt.Function method : stmt.methods) {
       /*
        * Classes interpret-methods < Classes interpreter-method-initializer
@@ -203,9 +384,9 @@ class Interpreter implements Expr.Visitor<Object>,
        */
       // > interpreter-method-initializer
       LoxFunction function = new LoxFunction(method, environment,
-          method.name.lexeme.equals("init"));
+          method.name.symbol == Symbol.INIT);
       // < interpreter-method-initializer
-      methods.put(method.name.lexeme, function);
+      methods.put(method.name.symbol, function);
     }
 
     /*
@@ -256,7 +437,7 @@ class Interpreter implements Expr.Visitor<Object>,
     LoxFunction function = new LoxFunction(stmt, environment,
         false);
     // < Classes construct-function
-    environment.define(stmt.name.lexeme, function);
+    environment.define(stmt.name.symbol, function);
     return null;
   }
 
@@ -277,10 +458,14 @@ class Interpreter implements Expr.Visitor<Object>,
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    print(value);
     return null;
   }
 
+  void print(Object value) {
+    output.println(stringify(value));
+  }
+
   // < Statements and State visit-print
   // > Functions visit-return
   @Override
@@ -296,25 +481,98 @@ class Interpreter implements Expr.Visitor<Object>,
   // > Statements and State visit-var
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt instanceof ScalarInstance && scalar((ScalarInstance) stmt))
+      return null;
+
     Object value = null;
     if (stmt.initializer != null) {
       value = evaluate(stmt.initializer);
     }
 
-    environment.define(stmt.name.lexeme, value);
+    environment.define(stmt.name.symbol, value);
     return null;
   }
 
+  // Defines the locals for a ScalarInstance's fields, unless its class's
+  // initializer is no longer the one analyzed.
+  private boolean scalar(ScalarInstance stmt) {
+    Expr.Call call = (Expr.Call) stmt.initializer;
+    Object callee = evaluate(call.callee);
+    LoxFunction init = callee instanceof LoxClass
+        ? ((LoxClass) callee).findMethod(Symbol.INIT) : null;
+    if (init == null || !init.isDeclaredBy(stmt.init)) {
+      ScalarInstance.materialized++;
+      for (Token field : stmt.fields) {
+        environment.define(field.symbol, ScalarInstance.MATERIALIZED);
+      }
+      return false;
+    }
+
+    Object[] arguments = new Object[call.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = evaluate(call.arguments.get(i));
+    }
+    for (int i = 0; i < stmt.fields.size(); i++) {
+      int argument = stmt.arguments[i];
+      environment.define(stmt.fields.get(i).symbol,
+          argument < 0 ? stmt.literals[i] : arguments[argument]);
+    }
+    return true;
+  }
+
   // < Statements and State visit-var
   // > Control Flow visit-while
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
+    if (stmt instanceof CountedLoop && counted((CountedLoop) stmt))
+      return null;
+
     while (isTruthy(evaluate(stmt.condition))) {
       execute(stmt.body);
     }
     return null;
   }
 
+  // Runs a CountedLoop with its count unboxed, unless its local or limit
+  // is not a number.
+  private boolean counted(CountedLoop loop) {
+    Object start = lookUpVariable(loop.variable.name, loop.variable);
+    Object limit = evaluate(loop.limit);
+    if (!(start instanceof Double) || !(limit instanceof Double)) {
+      CountedLoop.missed++;
+      return false;
+    }
+
+    double end = (double) limit;
+    double outer = loop.count;
+    loop.count = (double) start;
+    try {
+      while (compare(loop.comparison, loop.count, end)) {
+        execute(loop.countedBody);
+        loop.count += loop.step;
+      }
+    } finally {
+      environment.assignAt(loop.variable.depth, loop.variable.name,
+          loop.count);
+      loop.count = outer;
+    }
+    return true;
+  }
+
+  private static boolean compare(TokenType comparison, double left,
+      double right) {
+    switch (comparison) {
+      case GREATER:
+        return left > right;
+      case GREATER_EQUAL:
+        return left >= right;
+      case LESS:
+        return left < right;
+      default:
+        return left <= right;
+    }
+  }
+
   // < Control Flow visit-while
   // > Statements and State visit-assign
   @Override
@@ -326,8 +584,8 @@ class Interpreter implements Expr.Visitor<Object>,
      */
     // > Resolving and Binding resolved-assign
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
+    int distance = expr.depth;
+    if (distance >= 0) {
       environment.assignAt(distance, expr.name, value);
     } else {
       globals.assign(expr.name, value);
@@ -341,10 +599,140 @@ class Interpreter implements Expr.Visitor<Object>,
   // > visit-binary
   @Override
   public Object visitBinaryExpr(Expr.Binary expr) {
+    if (expr instanceof SpecializedBinary)
+      return specialized((SpecializedBinary) expr);
+
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right); // [left]
 
+    return binary(expr.operator.type, expr.operator.line, left, right);
+  }
+
+  // TypeInference has proved what the operands are, so none of binary()'s
+  // checks are needed. Each operand is still looked at once, so that should
+  // the proof ever be wrong, the operation falls back to binary() rather
+  // than failing with a ClassCastException (see SpecializedBinary).
+  private Object specialized(SpecializedBinary expr) {
+    if (expr.strings) {
+      Object left = evaluate(expr.left);
+      Object right = evaluate(expr.right);
+      if (!(left instanceof String) || !(right instanceof String))
+        return fallBack(expr.operator.type, expr.operator.line, left, right);
+      switch (expr.operator.type) {
+        case PLUS:
+          return Interner.internRuntime((String) left + (String) right);
+        case EQUAL_EQUAL:
+          return left.equals(right);
+        default:
+          return !left.equals(right);
+      }
+    }
+
+    double left;
+    try {
+      left = number(expr.left);
+    } catch (NotANumber error) {
+      return fallBack(expr.operator.type, expr.operator.line, error.value,
+          evaluate(expr.right));
+    }
+    double right;
+    try {
+      right = number(expr.right);
+    } catch (NotANumber error) {
+      return fallBack(expr.operator.type, expr.operator.line, left,
+          error.value);
+    }
     switch (expr.operator.type) {
+      case GREATER:
+        return left > right;
+      case GREATER_EQUAL:
+        return left >= right;
+      case LESS:
+        return left < right;
+      case LESS_EQUAL:
+        return left <= right;
+      // as Double.equals(), which isEqual() uses
+      case BANG_EQUAL:
+        return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+      case EQUAL_EQUAL:
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+      case SLASH:
+        return divide(left, right);
+      default:
+        return arithmetic(expr.operator.type, left, right);
+    }
+  }
+
+  // An operand proved to be a number. One that is arithmetic on numbers
+  // itself is worked out here, so its result is never boxed.
+  private double number(Expr expr) {
+    if (expr instanceof CountedLoop.Read)
+      return ((CountedLoop.Read) expr).loop.count;
+    if (expr instanceof SpecializedBinary &&
+        ((SpecializedBinary) expr).arithmetic) {
+      SpecializedBinary binary = (SpecializedBinary) expr;
+      TokenType operator = binary.operator.type;
+      int line = binary.operator.line;
+      double left;
+      try {
+        left = number(binary.left);
+      } catch (NotANumber error) {
+        return asNumber(fallBack(operator, line, error.value,
+            evaluate(binary.right)));
+      }
+      double right;
+      try {
+        right = number(binary.right);
+      } catch (NotANumber error) {
+        return asNumber(fallBack(operator, line, left, error.value));
+      }
+      return arithmetic(operator, left, right);
+    }
+    return asNumber(evaluate(expr));
+  }
+
+  // A specialized operation whose operands were not what was proved.
+  private static Object fallBack(TokenType operator, int line, Object left,
+      Object right) {
+    SpecializedBinary.missed++;
+    return binary(operator, line, left, right);
+  }
+
+  private static double asNumber(Object value) {
+    if (value instanceof Double)
+      return (double) value;
+    throw new NotANumber(value);
+  }
+
+  // What an operand proved to be a number was instead, for the operation
+  // that used it to give to binary().
+  private static class NotANumber extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final Object value;
+
+    NotANumber(Object value) {
+      super(null, null, false, false);
+      this.value = value;
+    }
+  }
+
+  private static double arithmetic(TokenType operator, double left,
+      double right) {
+    switch (operator) {
+      case PLUS:
+        return left + right;
+      case MINUS:
+        return left - right;
+      default:
+        return left * right;
+    }
+  }
+
+  // Shared with FlatInterpreter, which has no Token for the operator.
+  static Object binary(TokenType operator, int line, Object left,
+      Object right) {
+    switch (operator) {
       case GREATER:
         // checkNumberOperands(expr.operator, left, right);
         // accept compare number with the length of string
@@ -390,34 +778,28 @@ class Interpreter implements Expr.Visitor<Object>,
       case EQUAL_EQUAL:
         return isEqual(left, right);
       case MINUS:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, line, left, right);
         return (double) left - (double) right;
       case PLUS:
         if (left instanceof Double && right instanceof Double) {
           return (double) left + (double) right;
         }
         if (left instanceof String && right instanceof String) {
-          return (String) left + (String) right;
+          return Interner.internRuntime((String) left + (String) right);
         }
         // make the lox accept add strings with numbers
         if (left instanceof Double && right instanceof String) {
-          return stringify((Double) left) + (String) right;
+          return Interner.internRuntime(stringify((Double) left) + (String) right);
         }
         if (left instanceof String && right instanceof Double) {
-          return (String) left + stringify((Double) right);
+          return Interner.internRuntime((String) left + stringify((Double) right));
         }
         break;
       // throw new RuntimeError(expr.operator,
       // "Operands must be two numbers or two strings.");
       case SLASH:
-        checkNumberOperands(expr.operator, left, right);
-        // handel our own messages on not allowed divisions
-        Object result = (double) left / (double) right;
-        if (result.toString() == "Infinity")
-          return "Division by zero is not allowed";
-        if (result.toString() == "NaN")
-          return "Not a Number";
-        return result;
+        checkNumberOperands(operator, line, left, right);
+        return divide((double) left, (double) right);
       case STAR:
         // checkNumberOperands(expr.operator, left, right);
         // return (double) left * (double) right;
@@ -435,7 +817,7 @@ class Interpreter implements Expr.Visitor<Object>,
           for (int i = 0; i < repeatCount; i++) {
             starResult.append(right);
           }
-          return starResult.toString();
+          return Interner.internRuntime(starResult.toString());
         }
     }
 
@@ -443,11 +825,29 @@ class Interpreter implements Expr.Visitor<Object>,
     return null;
   }
 
+  private static Object divide(double left, double right) {
+    // handel our own messages on not allowed divisions
+    Object result = left / right;
+    if (result.toString() == "Infinity")
+      return "Division by zero is not allowed";
+    if (result.toString() == "NaN")
+      return "Not a Number";
+    return result;
+  }
+
   // < visit-binary
   // > Functions visit-call
   @Override
   public Object visitCallExpr(Expr.Call expr) {
     Object callee = evaluate(expr.callee);
+    // The Inliner's copy of the body holds while the callee is unchanged.
+    if (expr instanceof InlinedCall) {
+      InlinedCall inlined = (InlinedCall) expr;
+      if (callee instanceof LoxFunction &&
+          ((LoxFunction) callee).isDeclaredBy(inlined.function))
+        return evaluate(inlined.body);
+      InlinedCall.missed++;
+    }
 
     List<Object> arguments = new ArrayList<>();
     for (Expr argument : expr.arguments) { // [in-order]
@@ -470,13 +870,34 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     // < check-arity
-    return function.call(this, arguments);
+    if (function instanceof LoxFunction || function instanceof LoxClass)
+      return function.call(this, arguments);
+    return callNative(function, arguments, expr.paren);
+  }
+
+  // Natives throw their errors without a token; blame the call instead.
+  private Object callNative(LoxCallable function, List<Object> arguments,
+      Token paren) {
+    try {
+      return function.call(this, arguments);
+    } catch (RuntimeError error) {
+      if (error.token != null)
+        throw error;
+      throw new RuntimeError(paren, error.getMessage());
+    }
   }
 
   // < Functions visit-call
   // > Classes interpreter-visit-get
   @Override
   public Object visitGetExpr(Expr.Get expr) {
+    if (expr instanceof ScalarInstance.Get) {
+      Expr.Variable field = ((ScalarInstance.Get) expr).field;
+      Object value = environment.getAt(field.depth, field.name.symbol);
+      if (value != ScalarInstance.MATERIALIZED)
+        return value;
+    }
+
     Object object = evaluate(expr.object);
     if (object instanceof LoxInstance) {
       return ((LoxInstance) object).get(expr.name);
@@ -521,6 +942,16 @@ class Interpreter implements Expr.Visitor<Object>,
   // > Classes interpreter-visit-set
   @Override
   public Object visitSetExpr(Expr.Set expr) {
+    if (expr instanceof ScalarInstance.Set) {
+      Expr.Variable field = ((ScalarInstance.Set) expr).field;
+      if (environment.getAt(field.depth, field.name.symbol) !=
+          ScalarInstance.MATERIALIZED) {
+        Object value = evaluate(expr.value);
+        environment.assignAt(field.depth, field.name, value);
+        return value;
+      }
+    }
+
     Object object = evaluate(expr.object);
 
     if (!(object instanceof LoxInstance)) { // [order]
@@ -537,17 +968,17 @@ class Interpreter implements Expr.Visitor<Object>,
   // > Inheritance interpreter-visit-super
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
+    int distance = expr.depth;
     LoxClass superclass = (LoxClass) environment.getAt(
-        distance, "super");
+        distance, Symbol.SUPER);
     // > super-find-this
 
     LoxInstance object = (LoxInstance) environment.getAt(
-        distance - 1, "this");
+        distance - 1, Symbol.THIS);
     // < super-find-this
     // > super-find-method
 
-    LoxFunction method = superclass.findMethod(expr.method.lexeme);
+    LoxFunction method = superclass.findMethod(expr.method.symbol);
     // > super-no-method
 
     if (method == null) {
@@ -573,14 +1004,18 @@ class Interpreter implements Expr.Visitor<Object>,
   public Object visitUnaryExpr(Expr.Unary expr) {
     Object right = evaluate(expr.right);
 
-    switch (expr.operator.type) {
+    return unary(expr.operator.type, expr.operator.line, right);
+  }
+
+  static Object unary(TokenType operator, int line, Object right) {
+    switch (operator) {
       // > unary-bang
       case BANG:
         return !isTruthy(right);
       // < unary-bang
       case MINUS:
         // > check-unary-operand
-        checkNumberOperand(expr.operator, right);
+        checkNumberOperand(operator, line, right);
         // < check-unary-operand
         return -(double) right;
     }
@@ -598,6 +1033,8 @@ class Interpreter implements Expr.Visitor<Object>,
      * call-look-up-variable
      * return environment.get(expr.name);
      */
+    if (expr instanceof CountedLoop.Read)
+      return ((CountedLoop.Read) expr).loop.count;
     // > Resolving and Binding call-look-up-variable
     return lookUpVariable(expr.name, expr);
     // < Resolving and Binding call-look-up-variable
@@ -605,9 +1042,9 @@ class Interpreter implements Expr.Visitor<Object>,
 
   // > Resolving and Binding look-up-variable
   private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.lexeme);
+    int distance = expr.depth;
+    if (distance >= 0) {
+      return environment.getAt(distance, name.symbol);
     } else {
       return globals.get(name);
     }
@@ -616,26 +1053,32 @@ class Interpreter implements Expr.Visitor<Object>,
   // < Resolving and Binding look-up-variable
   // < Statements and State visit-variable
   // > check-operand
-  private void checkNumberOperand(Token operator, Object operand) {
+  private static void checkNumberOperand(TokenType operator, int line,
+      Object operand) {
     if (operand instanceof Double)
       return;
-    throw new RuntimeError(operator, "Operand must be a number.");
+    throw new RuntimeError(token(operator, line), "Operand must be a number.");
   }
 
   // < check-operand
   // > check-operands
-  private void checkNumberOperands(Token operator,
+  private static void checkNumberOperands(TokenType operator, int line,
       Object left, Object right) {
     if (left instanceof Double && right instanceof Double)
       return;
     // [operand]
-    throw new RuntimeError(operator, "Operands must be numbers.");
+    throw new RuntimeError(token(operator, line), "Operands must be numbers.");
+  }
+
+  // An operator token to blame in an error, made only when one is thrown.
+  private static Token token(TokenType operator, int line) {
+    return new Token(operator, TokenBuffer.fixedLexeme(operator), null, line);
   }
 
   // the 0 in lox is true not false, if U want it be false edit the function below
   // < check-operands
   // > is-truthy
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null)
       return false;
     if (object instanceof Boolean)
@@ -645,8 +1088,9 @@ class Interpreter implements Expr.Visitor<Object>,
 
   // < is-truthy
   // > is-equal
-  private boolean isEqual(Object a, Object b) {
-    if (a == null && b == null)
+  private static boolean isEqual(Object a, Object b) {
+    // interned strings (and the same instance twice) match without equals()
+    if (a == b)
       return true;
     if (a == null)
       return false;
@@ -656,7 +1100,7 @@ class Interpreter implements Expr.Visitor<Object>,
 
   // < is-equal
   // > stringify
-  private String stringify(Object object) {
+  private static String stringify(Object object) {
     if (object == null) {
       // throw new RuntimeError(null,
       // "access not initialized variable not allowed");
@@ -0,0 +1,80 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * The body of a function whose tokens were set aside by the Parser instead
+ * of being parsed (-Dlox.parse.lazy=true). It is parsed, then resolved
+ * against the scopes the Resolver saw around the declaration, the first
+ * time anything reads it, which is normally the function's first call.
+ * Functions that never run cost only a brace match.
+ *
+ * Syntax and resolution errors in the body are therefore reported on
+ * first call, and the call fails with a RuntimeError.
+ */
+class LazyBody extends AbstractList<Stmt> {
+  private static int deferred = 0;
+  private static int parsed = 0;
+
+  private final Token name;
+  // the body's tokens until it is parsed
+  private TokenBuffer tokens;
+  // set by the Resolver when it reaches the declaration
+  private Consumer<List<Stmt>> resolver;
+  private List<Stmt> statements;
+  private boolean failed = false;
+
+  LazyBody(Token name, TokenBuffer tokens) {
+    this.name = name;
+    this.tokens = tokens;
+    deferred++;
+  }
+
+  void resolveWith(Consumer<List<Stmt>> resolver) {
+    this.resolver = resolver;
+  }
+
+  private List<Stmt> statements() {
+    if (statements != null)
+      return statements;
+    if (failed) {
+      throw new RuntimeError(name,
+          "Function '" + name.lexeme + "' has errors in its body.");
+    }
+
+    // Output printed before the first call comes ahead of any error here,
+    // and only errors in this body count against it.
+    Lox.flushOutput();
+    boolean hadError = Lox.hadError;
+    Lox.hadError = false;
+    List<Stmt> body = new Parser(tokens, false).parse();
+    if (!Lox.hadError && resolver != null)
+      resolver.accept(body);
+    failed = Lox.hadError;
+    Lox.hadError |= hadError;
+
+    tokens = null;
+    resolver = null;
+    parsed++;
+    if (failed)
+      return statements();
+    statements = Optimizer.optimizeBody(body);
+    return statements;
+  }
+
+  @Override
+  public Stmt get(int index) {
+    return statements().get(index);
+  }
+
+  @Override
+  public int size() {
+    return statements().size();
+  }
+
+  static String report() {
+    return "lazy bodies: " + parsed + " of " + deferred + " parsed";
+  }
+}
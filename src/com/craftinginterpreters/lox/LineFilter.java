@@ -0,0 +1,153 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Drives a script in awk style (jlox -n / -p): after the script itself has
+ * run once, the named Lox function is called with every line of stdin. The
+ * script is scanned, parsed and resolved a single time, so each record only
+ * costs one call.
+ */
+class LineFilter {
+  private final String functionName;
+  private final boolean printResults;
+  // null when -F was not given
+  private final String separator;
+
+  // the record being processed, split on first use
+  private String line;
+  private List<String> fields;
+
+  LineFilter(String functionName, boolean printResults, String separator) {
+    this.functionName = functionName;
+    this.printResults = printResults;
+    this.separator = separator;
+  }
+
+  // field(0) is the whole line, field(1) the first field; nil past the end
+  // or before the first record.
+  void defineNativeFunctions(Interpreter interpreter) {
+    interpreter.globals.define("field", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object index = arguments.get(0);
+        if (!(index instanceof Double)) {
+          throw new RuntimeError(null, "Field index must be a number.");
+        }
+
+        int i = (int) (double) (Double) index;
+        if (i == 0)
+          return line;
+        List<String> fields = fields();
+        if (i < 0 || i > fields.size())
+          return null;
+        return fields.get(i - 1);
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+
+    interpreter.globals.define("fieldCount", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 0;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return (double) fields().size();
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+  }
+
+  void run(Interpreter interpreter, InputReader input) {
+    try {
+      // nil when the script declares no such global
+      Object callee = interpreter.globals.getAt(0, Symbol.of(functionName));
+      if (!(callee instanceof LoxCallable) ||
+          ((LoxCallable) callee).arity() != 1) {
+        // Blame the declaration if there is one; there is no call site.
+        Token name = callee instanceof LoxFunction
+            ? ((LoxFunction) callee).declaredName() : null;
+        throw new RuntimeError(name, "Filter function '" + functionName +
+            "' must be a function taking one argument.");
+      }
+
+      LoxCallable function = (LoxCallable) callee;
+      // the argument list is refilled for every record, never kept
+      List<Object> arguments = new ArrayList<>(1);
+      arguments.add(null);
+
+      while ((line = input.readLine()) != null) {
+        fields = null;
+        arguments.set(0, line);
+        Object result = function.call(interpreter, arguments);
+        if (printResults && result != null) {
+          interpreter.print(result);
+        }
+      }
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    }
+  }
+
+  private List<String> fields() {
+    // The script's own top level runs before the first record.
+    if (line == null)
+      return List.of();
+    if (fields == null) {
+      fields = separator == null ? splitWhitespace(line) : split(line, separator);
+    }
+    return fields;
+  }
+
+  // awk's default: fields are runs of non-blank characters
+  private static List<String> splitWhitespace(String line) {
+    List<String> fields = new ArrayList<>();
+    int length = line.length();
+    int i = 0;
+    while (i < length) {
+      while (i < length && isBlank(line.charAt(i)))
+        i++;
+      int start = i;
+      while (i < length && !isBlank(line.charAt(i)))
+        i++;
+      if (i > start)
+        fields.add(line.substring(start, i));
+    }
+    return fields;
+  }
+
+  private static List<String> split(String line, String separator) {
+    if (separator.equals(" "))
+      return splitWhitespace(line);
+
+    List<String> fields = new ArrayList<>();
+    int start = 0;
+    int end;
+    while ((end = line.indexOf(separator, start)) != -1) {
+      fields.add(line.substring(start, end));
+      start = end + separator.length();
+    }
+    fields.add(line.substring(start));
+    return fields;
+  }
+
+  private static boolean isBlank(char c) {
+    return c == ' ' || c == '\t';
+  }
+}
@@ -0,0 +1,215 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A script loaded into the REPL with ":load path", which ":reload" brings
+ * up to date after the file has been edited.
+ *
+ * The file is cut into its top-level declarations by a quick pass over the
+ * characters, and only those whose text has not been run before are
+ * scanned, parsed, resolved and run. A changed function or class is
+ * simply declared again, which replaces its binding in globals; unchanged
+ * ones keep their resolved trees. Everything else that changed runs again
+ * too, so a reload costs time in proportion to the edit rather than to the
+ * file.
+ *
+ * Removing a declaration from the file does not undefine it, and an
+ * unchanged function keeps the line numbers it was first loaded with.
+ */
+class LoadedFile {
+  // states of the declaration pass, as in ParallelScanner
+  private static final int CODE = 0;
+  private static final int LINE_COMMENT = 1;
+  private static final int BLOCK_COMMENT = 2;
+  private static final int STRING = 3;
+  private static final int SINGLE_QUOTED = 4;
+
+  final String path;
+  // the text of every declaration that has been run, with how often it
+  // occurs in the file
+  private Map<String, Integer> loaded = new HashMap<>();
+  // how many declarations the file had when last loaded
+  int size = 0;
+
+  LoadedFile(String path) {
+    this.path = path;
+  }
+
+  /*
+   * The declarations that are new since the last load, resolved and ready
+   * to run. If any of them has a syntax or resolution error this is null,
+   * and the file stays as it was last loaded.
+   */
+  List<Stmt> reload() throws IOException {
+    char[] source = new String(Files.readAllBytes(Paths.get(path)),
+        StandardCharsets.UTF_8).toCharArray();
+
+    Map<String, Integer> unchanged = new HashMap<>(loaded);
+    Map<String, Integer> declarations = new HashMap<>();
+    List<Stmt> changed = new ArrayList<>();
+    int count = 0;
+    for (int[] declaration : split(source)) {
+      String text = new String(source, declaration[0],
+          declaration[1] - declaration[0]);
+      declarations.merge(text, 1, Integer::sum);
+      count++;
+      if (unchanged.merge(text, -1, Integer::sum) >= 0)
+        continue;
+
+      List<Stmt> statements = compile(source, declaration);
+      if (statements != null)
+        changed.addAll(statements);
+    }
+
+    if (Lox.hadError)
+      return null;
+
+    loaded = declarations;
+    size = count;
+    return changed;
+  }
+
+  private static List<Stmt> compile(char[] source, int[] declaration) {
+    Scanner scanner = new Scanner(source, declaration[0], declaration[1],
+        declaration[2]);
+    TokenBuffer tokens = new TokenBuffer(scanner);
+    tokens.scanAll();
+    return Lox.compile(new Parser(tokens, false));
+  }
+
+  /*
+   * Finds the top-level declarations in source as { from, to, line }: each
+   * ends with a ';' or '}' outside any brackets that is not followed by
+   * "else". Like ParallelScanner.split(), this has to agree with the
+   * Scanner on strings, comments and line numbers.
+   */
+  private static List<int[]> split(char[] source) {
+    List<int[]> declarations = new ArrayList<>();
+    int length = source.length;
+    int state = CODE;
+    int depth = 0;
+    int line = 1;
+    int start = -1;
+    int startLine = 1;
+
+    int i = 0;
+    while (i < length) {
+      char c = source[i];
+      if (start < 0 && state == CODE) {
+        if (c == '\n') {
+          line++;
+          i++;
+          continue;
+        }
+        if (Character.isWhitespace(c)) {
+          i++;
+          continue;
+        }
+        start = i;
+        startLine = line;
+      }
+
+      switch (state) {
+        case CODE:
+          i++;
+          if (c == '\n') {
+            line++;
+          } else if (c == '/' && i < length && source[i] == '/') {
+            state = LINE_COMMENT;
+          } else if (c == '/' && i < length && source[i] == '*') {
+            i++;
+            state = BLOCK_COMMENT;
+          } else if (c == '"') {
+            state = STRING;
+          } else if (c == '\'') {
+            state = SINGLE_QUOTED;
+          } else if (c == '(' || c == '{') {
+            depth++;
+          } else if (c == ')' || c == '}') {
+            depth = Math.max(0, depth - 1);
+          }
+
+          if ((c == ';' || c == '}') && depth == 0 && !followedByElse(source, i)) {
+            declarations.add(new int[] { start, i, startLine });
+            start = -1;
+          }
+          break;
+
+        case LINE_COMMENT:
+          if (c == '\n') {
+            state = CODE;
+          } else {
+            i++;
+          }
+          break;
+
+        case BLOCK_COMMENT:
+          if ((c == '/' || c == '*') && i + 1 < length &&
+              source[i + 1] == (c == '/' ? '*' : '/')) {
+            i += 2;
+            state = CODE;
+          } else {
+            if (c == '\n')
+              line++;
+            i++;
+          }
+          break;
+
+        case STRING:
+          i++;
+          if (c == '"')
+            state = CODE;
+          break;
+
+        case SINGLE_QUOTED:
+          if (c == '\n') {
+            state = CODE;
+          } else {
+            i++;
+            if (c == '\'')
+              state = CODE;
+          }
+          break;
+      }
+    }
+
+    // Whatever is left over, so the parser reports what is wrong with it.
+    if (start >= 0)
+      declarations.add(new int[] { start, length, startLine });
+    return declarations;
+  }
+
+  // Whether the next word after blanks and comments is "else".
+  private static boolean followedByElse(char[] source, int i) {
+    int length = source.length;
+    while (i < length) {
+      char c = source[i];
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '/' && i + 1 < length && source[i + 1] == '/') {
+        while (i < length && source[i] != '\n')
+          i++;
+      } else if (c == '/' && i + 1 < length && source[i + 1] == '*') {
+        i += 2;
+        while (i + 1 < length && !(source[i] == '*' && source[i + 1] == '/'))
+          i++;
+        i += 2;
+      } else {
+        break;
+      }
+    }
+
+    return i + 4 <= length && source[i] == 'e' && source[i + 1] == 'l' &&
+        source[i + 2] == 's' && source[i + 3] == 'e' &&
+        (i + 4 == length || !Character.isLetterOrDigit(source[i + 4]) &&
+            source[i + 4] != '_');
+  }
+}
@@ -0,0 +1,383 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/*
+ * Loop-invariant code motion. The parts of a while loop's condition and
+ * body (and so a for loop's) that give the same value on every iteration
+ * are evaluated once before the loop, into a new local that the loop reads
+ * instead. The local is declared just before the loop in the list the loop
+ * is in, or at top level in a block put around the two so that it is not
+ * a global. Its name starts with "$", which no identifier can.
+ *
+ * An expression is invariant if it makes no calls, assignments or property
+ * sets, and reads only:
+ *  - literals and "this",
+ *  - locals declared outside the loop that nothing in the loop assigns,
+ *    and that no function assigns either if the loop makes calls,
+ *  - if the loop makes no calls, globals it does not assign and properties
+ *    it does not set.
+ * The functions declared inside the loop are walked too, for what they
+ * assign and set. A property read moved this way that finds a method gives
+ * the same bound method on every iteration rather than a new one each time.
+ *
+ * Moving an expression must not change whether or when it fails. The
+ * condition always runs at least once, so a part of it may move if it is
+ * always evaluated, and nothing before it can fail or has an effect. A
+ * part of the body may run any number of times, or never, so it may only
+ * move if it cannot fail: if it is made of literals, "this", locals,
+ * globals declared earlier at top level, comparisons, equality, "+", "!",
+ * "and" and "or".
+ */
+class LoopInvariantMover extends Pass {
+  static int hoisted = 0;
+
+  // the locals that some function nested in the one declaring them assigns
+  private Set<Token> assignedByFunctions;
+  // the globals declared so far, which reading cannot fail
+  private final Set<Symbol> defined = new HashSet<>();
+  private int count = 0;
+
+  @Override
+  List<Stmt> run(List<Stmt> statements) {
+    assignedByFunctions = assignedByFunctions(statements);
+    return super.run(statements);
+  }
+
+  @Override
+  List<Stmt> statements(List<Stmt> statements) {
+    List<Stmt> result = null;
+    for (int i = 0; i < statements.size(); i++) {
+      Stmt statement = statements.get(i);
+      // Loops inside the statement first, so that an outer loop sees what
+      // they moved out.
+      List<Stmt> rewritten = List.of(statement.accept(this));
+      if (rewritten.get(0) instanceof Stmt.While) {
+        List<Stmt> replacement = hoist((Stmt.While) rewritten.get(0));
+        if (replacement != null) {
+          rewritten = atTopLevel()
+              ? List.of(new Stmt.Block(replacement)) : replacement;
+        }
+      }
+
+      if ((rewritten.size() != 1 || rewritten.get(0) != statement) &&
+          result == null)
+        result = new ArrayList<>(statements.subList(0, i));
+      if (result != null)
+        result.addAll(rewritten);
+    }
+    return result == null ? statements : result;
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    if (atTopLevel())
+      defined.add(stmt.name.symbol);
+    return super.visitClassStmt(stmt);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    if (atTopLevel())
+      defined.add(stmt.name.symbol);
+    return super.visitFunctionStmt(stmt);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Stmt rewritten = super.visitVarStmt(stmt);
+    if (atTopLevel())
+      defined.add(stmt.name.symbol);
+    return rewritten;
+  }
+
+  // The declarations of the moved expressions followed by the loop, or
+  // null if nothing could move.
+  private List<Stmt> hoist(Stmt.While loop) {
+    Effects effects = new Effects();
+    effects.statement(loop);
+    if (effects.opaque)
+      return null;
+
+    Hoister hoister = new Hoister(effects);
+    Stmt.While rewritten = hoister.loop(loop);
+    if (hoister.declarations.isEmpty())
+      return null;
+
+    List<Stmt> replacement = new ArrayList<>(hoister.declarations);
+    replacement.add(rewritten);
+    return replacement;
+  }
+
+  /*
+   * What a loop can change. It is walked on its own, so the scopes it
+   * enters are counted from the loop, and a local depth scopes out that
+   * is at least that many is declared outside it.
+   */
+  private class Effects extends Pass {
+    final Set<Token> assigned = new HashSet<>();
+    final Set<Symbol> assignedGlobals = new HashSet<>();
+    final Set<Symbol> setProperties = new HashSet<>();
+    boolean calls = false;
+    // whether it declares a function whose body has not been parsed yet
+    boolean opaque = false;
+
+    @Override
+    Stmt.Function function(Stmt.Function stmt) {
+      if (stmt.body instanceof LazyBody)
+        opaque = true;
+      return super.function(stmt);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+      if (expr.depth < 0) {
+        assignedGlobals.add(expr.name.symbol);
+      } else if (expr.depth >= scopeCount()) {
+        Token declaration = LoopInvariantMover.this.declaration(
+            expr.depth - scopeCount(), expr.name.symbol);
+        if (declaration != null)
+          assigned.add(declaration);
+      }
+      return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+      calls = true;
+      return super.visitCallExpr(expr);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+      setProperties.add(expr.name.symbol);
+      return super.visitSetExpr(expr);
+    }
+  }
+
+  // Walks a loop, also counting scopes from it, and takes out what can move.
+  private class Hoister extends Pass {
+    private final Effects effects;
+    final List<Stmt.Var> declarations = new ArrayList<>();
+    private boolean inCondition = false;
+    // whether nothing in the condition so far could fail or has an effect
+    private boolean clean = true;
+
+    Hoister(Effects effects) {
+      this.effects = effects;
+    }
+
+    @Override
+    Stmt.Function function(Stmt.Function stmt) {
+      // A function's body runs when it is called, in its own scopes.
+      return stmt;
+    }
+
+    // Loops nested in this one are walked as part of its body.
+    Stmt.While loop(Stmt.While stmt) {
+      inCondition = true;
+      Expr condition = expression(stmt.condition);
+      inCondition = false;
+      Stmt body = statement(stmt.body);
+
+      if (condition == stmt.condition && body == stmt.body)
+        return stmt;
+      return new Stmt.While(condition, body);
+    }
+
+    @Override
+    Expr expression(Expr expr) {
+      if (worthMoving(expr) && invariant(expr)) {
+        // One already moved out has been evaluated by the time this would
+        // be, whether or not this one could fail.
+        Expr rebased = new Rebase(scopeCount()).expression(expr);
+        for (Stmt.Var declaration : declarations) {
+          if (same(declaration.initializer, rebased))
+            return variable(declaration.name);
+        }
+        if (inCondition ? clean : cannotFail(expr))
+          return hoist(rebased);
+      }
+
+      Expr rewritten = super.expression(expr);
+      if (!cannotFail(expr))
+        clean = false;
+      return rewritten;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+      Expr left = expression(expr.left);
+      // The right operand may not be evaluated.
+      clean = false;
+      Expr right = expression(expr.right);
+
+      if (left == expr.left && right == expr.right)
+        return expr;
+      return new Expr.Logical(left, expr.operator, right);
+    }
+
+    // Takes out an expression already rebased to just outside the loop.
+    private Expr hoist(Expr rebased) {
+      Token name = new Token(TokenType.IDENTIFIER, "$" + count++, null, 0);
+      declarations.add(new Stmt.Var(name, rebased));
+      hoisted++;
+      return variable(name);
+    }
+
+    private Expr variable(Token name) {
+      Expr.Variable variable = new Expr.Variable(name);
+      variable.depth = scopeCount();
+      return variable;
+    }
+
+    private boolean invariant(Expr expr) {
+      if (expr instanceof Expr.Literal || expr instanceof Expr.This)
+        return true;
+      if (expr instanceof Expr.Variable) {
+        Symbol symbol = ((Expr.Variable) expr).name.symbol;
+        if (expr.depth < 0)
+          return !effects.calls && !effects.assignedGlobals.contains(symbol);
+        if (expr.depth < scopeCount())
+          return false;
+
+        Token declaration = LoopInvariantMover.this.declaration(
+            expr.depth - scopeCount(), symbol);
+        return declaration != null &&
+            !effects.assigned.contains(declaration) &&
+            !(effects.calls && assignedByFunctions.contains(declaration));
+      }
+      if (expr instanceof Expr.Get) {
+        Expr.Get get = (Expr.Get) expr;
+        return !effects.calls &&
+            !effects.setProperties.contains(get.name.symbol) &&
+            invariant(get.object);
+      }
+      if (expr instanceof Expr.Binary) {
+        return invariant(((Expr.Binary) expr).left) &&
+            invariant(((Expr.Binary) expr).right);
+      }
+      if (expr instanceof Expr.Logical) {
+        return invariant(((Expr.Logical) expr).left) &&
+            invariant(((Expr.Logical) expr).right);
+      }
+      if (expr instanceof Expr.Unary)
+        return invariant(((Expr.Unary) expr).right);
+      if (expr instanceof Expr.Grouping)
+        return invariant(((Expr.Grouping) expr).expression);
+      return false;
+    }
+  }
+
+  // Whether reading a new local instead saves anything.
+  private static boolean worthMoving(Expr expr) {
+    if (expr instanceof Expr.Grouping)
+      return worthMoving(((Expr.Grouping) expr).expression);
+    return expr instanceof Expr.Binary || expr instanceof Expr.Logical ||
+        expr instanceof Expr.Unary || expr instanceof Expr.Get;
+  }
+
+  private boolean cannotFail(Expr expr) {
+    if (expr instanceof Expr.Literal || expr instanceof Expr.This)
+      return true;
+    if (expr instanceof Expr.Variable) {
+      return expr.depth >= 0 ||
+          defined.contains(((Expr.Variable) expr).name.symbol);
+    }
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      switch (binary.operator.type) {
+        case MINUS:
+        case SLASH:
+        case STAR:
+          return false;
+        default:
+          return cannotFail(binary.left) && cannotFail(binary.right);
+      }
+    }
+    if (expr instanceof Expr.Logical) {
+      return cannotFail(((Expr.Logical) expr).left) &&
+          cannotFail(((Expr.Logical) expr).right);
+    }
+    if (expr instanceof Expr.Unary) {
+      return ((Expr.Unary) expr).operator.type == TokenType.BANG &&
+          cannotFail(((Expr.Unary) expr).right);
+    }
+    if (expr instanceof Expr.Grouping)
+      return cannotFail(((Expr.Grouping) expr).expression);
+    return false;
+  }
+
+  // Whether two invariant expressions, as seen from the same scope, are
+  // written the same.
+  private static boolean same(Expr a, Expr b) {
+    if (a.getClass() != b.getClass() || a.depth != b.depth)
+      return false;
+    if (a instanceof Expr.Literal) {
+      return Objects.equals(((Expr.Literal) a).value,
+          ((Expr.Literal) b).value);
+    }
+    if (a instanceof Expr.Variable) {
+      return ((Expr.Variable) a).name.symbol ==
+          ((Expr.Variable) b).name.symbol;
+    }
+    if (a instanceof Expr.Get) {
+      return ((Expr.Get) a).name.symbol == ((Expr.Get) b).name.symbol &&
+          same(((Expr.Get) a).object, ((Expr.Get) b).object);
+    }
+    if (a instanceof Expr.Binary) {
+      Expr.Binary x = (Expr.Binary) a;
+      Expr.Binary y = (Expr.Binary) b;
+      return x.operator.type == y.operator.type && same(x.left, y.left) &&
+          same(x.right, y.right);
+    }
+    if (a instanceof Expr.Logical) {
+      Expr.Logical x = (Expr.Logical) a;
+      Expr.Logical y = (Expr.Logical) b;
+      return x.operator.type == y.operator.type && same(x.left, y.left) &&
+          same(x.right, y.right);
+    }
+    if (a instanceof Expr.Unary) {
+      return ((Expr.Unary) a).operator.type ==
+          ((Expr.Unary) b).operator.type &&
+          same(((Expr.Unary) a).right, ((Expr.Unary) b).right);
+    }
+    if (a instanceof Expr.Grouping) {
+      return same(((Expr.Grouping) a).expression,
+          ((Expr.Grouping) b).expression);
+    }
+    // "this"
+    return true;
+  }
+
+  // A copy of an expression moved out of shift scopes.
+  private static class Rebase extends Pass {
+    private final int shift;
+
+    Rebase(int shift) {
+      this.shift = shift;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+      if (shift == 0)
+        return expr;
+      Expr.This rebased = new Expr.This(expr.keyword);
+      rebased.depth = expr.depth - shift;
+      return rebased;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+      if (shift == 0 || expr.depth < 0)
+        return expr;
+      Expr.Variable rebased = new Expr.Variable(expr.name);
+      rebased.depth = expr.depth - shift;
+      return rebased;
+    }
+  }
+}
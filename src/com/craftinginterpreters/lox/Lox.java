@@ -1,13 +1,17 @@
 //> Scanning lox-class
 package com.craftinginterpreters.lox;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class Lox {
 	// > Evaluating Expressions interpreter-instance
@@ -18,23 +22,91 @@ public class Lox {
 	// < had-error
 	// > Evaluating Expressions had-runtime-error-field
 	static boolean hadRuntimeError = false;
+	// While set, errors are collected here rather than printed.
+	private static StringBuilder heldErrors = null;
 
 	// < Evaluating Expressions had-runtime-error-field
 	public static void main(String[] args) throws IOException {
-		if (args.length > 1) {
-			System.out.println("Usage: jlox [script]");
-			System.exit(64); // [64]
-		} else if (args.length == 1) {
-			runFile(args[0]);
+		// awk-style options: -n calls a function per input line, -p also
+		// prints what it returns, -F splits lines into fields.
+		String function = null;
+		boolean printResults = false;
+		String separator = null;
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-") && args[i].length() > 1) {
+			String option = args[i++];
+			if (option.equals("-n")) {
+				function = function == null ? "process" : function;
+			} else if (option.equals("-p")) {
+				function = function == null ? "process" : function;
+				printResults = true;
+			} else if (option.equals("-f") && i < args.length) {
+				function = args[i++];
+			} else if (option.equals("-F") && i < args.length && !args[i].isEmpty()) {
+				separator = args[i++];
+			} else {
+				usage();
+			}
+		}
+
+		if (args.length - i > 1) {
+			usage();
+		} else if (args.length - i == 1) {
+			LineFilter filter = null;
+			if (function != null || separator != null) {
+				filter = new LineFilter(function == null ? "process" : function,
+						printResults, separator);
+			}
+			runFile(args[i], filter);
+		} else if (function != null || separator != null) {
+			usage();
 		} else {
 			runPrompt();
 		}
 	}
 
+	private static void usage() {
+		System.out.println("Usage: jlox [-n | -p] [-f function] [-F separator] [script]");
+		System.exit(64); // [64]
+	}
+
 	// > run-file
-	private static void runFile(String path) throws IOException {
-		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
+	private static void runFile(String path, LineFilter filter) throws IOException {
+		// Scripts write through a large buffer. It is flushed however the run
+		// ends: by the finally below, even when something like a
+		// StackOverflowError escapes, and by this hook when the JVM is stopped
+		// by a signal.
+		interpreter.setOutput(OutputSink.forStdout());
+		Runtime.getRuntime().addShutdownHook(
+				new Thread(interpreter::flushOutput, "lox-flush"));
+		if (filter != null)
+			filter.defineNativeFunctions(interpreter);
+
+		try {
+			// The script is mapped and decoded as UTF-8 while it is being scanned,
+			// rather than read into one big String up front.
+			try (FileChannel channel = FileChannel.open(Paths.get(path),
+					StandardOpenOption.READ)) {
+				MappedByteBuffer source = channel.map(FileChannel.MapMode.READ_ONLY,
+						0, channel.size());
+				if (AstCache.ENABLED) {
+					runCached(path, source);
+				} else if (FlatAst.ENABLED) {
+					runFlat(scan(source));
+				} else if (STREAMING) {
+					runStreaming(source);
+				} else {
+					run(scan(source));
+				}
+			}
+
+			// The script has defined its functions; now feed it the input.
+			if (filter != null && !hadError && !hadRuntimeError)
+				filter.run(interpreter, InputReader.stdin());
+		} finally {
+			interpreter.flushOutput();
+		}
+		reportStats();
 		// > exit-code
 
 		// Indicate an error in the exit code.
@@ -50,26 +122,192 @@ public class Lox {
 	// < run-file
 	// > prompt
 	private static void runPrompt() throws IOException {
-		InputStreamReader input = new InputStreamReader(System.in);
-		BufferedReader reader = new BufferedReader(input);
+		// Shared with input() and friends so neither side eats the other's text.
+		InputReader reader = InputReader.stdin();
+		List<LoadedFile> files = new ArrayList<>();
 
 		for (;;) { // [repl]
 			System.out.print("> ");
 			String line = reader.readLine();
 			if (line == null)
 				break;
-			run(line);
+			if (line.startsWith(":load ")) {
+				LoadedFile file = new LoadedFile(line.substring(6).trim());
+				load(file);
+				files.add(file);
+			} else if (line.trim().equals(":reload")) {
+				for (LoadedFile file : files)
+					load(file);
+			} else {
+				run(line);
+			}
 			// > reset-had-error
 			hadError = false;
 			// < reset-had-error
 		}
+		reportStats();
 	}
 
 	// < prompt
+	private static void load(LoadedFile file) {
+		try {
+			List<Stmt> changed = file.reload();
+			if (changed == null)
+				return;
+			interpreter.interpret(changed);
+			System.out.println("Ran " + changed.size() + " of " + file.size +
+					" declarations in " + file.path + ".");
+		} catch (IOException error) {
+			System.err.println("Could not read " + file.path + ": " + error.getMessage());
+		}
+	}
+
+	private static TokenBuffer scan(MappedByteBuffer source) throws IOException {
+		if (!ParallelScanner.ENABLED)
+			return new TokenBuffer(new Scanner(source));
+
+		// Chunks are scanned side by side, so it is decoded all at once.
+		CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE)
+				.decode(source);
+		return new ParallelScanner(chars.array(), chars.limit()).scan();
+	}
+
+	// Runs the cached program if the script is unchanged, else compiles and caches it.
+	private static void runCached(String path, MappedByteBuffer source)
+			throws IOException {
+		AstCache cache = new AstCache(path, source);
+		List<Stmt> statements = cache.load();
+		if (statements == null) {
+			// The cache holds whole programs, so nothing is parsed lazily.
+			statements = parseAndResolve(new Parser(scan(source), false));
+			if (statements == null)
+				return;
+			// It keeps the program unoptimized, for whichever passes later runs pick.
+			cache.store(statements);
+		}
+
+		interpreter.interpret(Optimizer.optimize(statements));
+	}
+
+	/*
+	 * Compiles each top-level declaration into a FlatAst as soon as it is
+	 * parsed and resolved, then runs that. Errors are reported as check()
+	 * reports them.
+	 */
+	private static void runFlat(TokenBuffer tokens) {
+		FlatAst ast = new FlatAst();
+		boolean valid = check(new Parser(tokens, false), statement -> {
+			for (Stmt optimized : Optimizer.optimize(List.of(statement)))
+				ast.add(optimized);
+		});
+
+		if (!valid)
+			return;
+		new FlatInterpreter(ast, interpreter).interpret();
+	}
+
+	/*
+	 * With -Dlox.run.stream=true each top-level declaration is run as soon
+	 * as it has been parsed and resolved, and then dropped, so only the
+	 * functions and classes still in use stay in memory. An error anywhere
+	 * must still keep the script from running at all, so a first pass
+	 * checks the whole script, keeping nothing, and a second pass scans it
+	 * again and runs it.
+	 */
+	static final boolean STREAMING = Boolean.getBoolean("lox.run.stream");
+	// How long print output may wait before it is pushed out while streaming.
+	// It is checked only between declarations: one that runs longer, such as
+	// a long top-level loop, keeps its output until the buffer fills or it
+	// finishes.
+	private static final long FLUSH_INTERVAL = 100_000_000L; // ns
+
+	private static void runStreaming(MappedByteBuffer source) throws IOException {
+		// The script is scanned once per pass.
+		if (!check(new Parser(scan(source.duplicate()), false), statement -> {
+		}))
+			return;
+
+		Parser parser = new Parser(scan(source), false);
+		Resolver resolver = new Resolver(interpreter);
+		long lastFlush = System.nanoTime();
+		while (parser.hasNext() && !hadRuntimeError) {
+			List<Stmt> statement = List.of(parser.next());
+			resolver.resolve(statement);
+			interpreter.interpret(Optimizer.optimize(statement));
+
+			if (System.nanoTime() - lastFlush > FLUSH_INTERVAL) {
+				interpreter.flushOutput();
+				lastFlush = System.nanoTime();
+			}
+		}
+	}
+
+	/*
+	 * Parses and resolves one declaration at a time, and reports errors as
+	 * compile() does: every syntax error, or if there are none, every error
+	 * the Resolver finds. True if there were none. Until there is one, each
+	 * declaration is passed on to resolved once it has been resolved.
+	 */
+	private static boolean check(Parser parser, Consumer<Stmt> resolved) {
+		Resolver resolver = new Resolver(interpreter);
+		StringBuilder resolutionErrors = new StringBuilder();
+		boolean syntaxError = false;
+		while (parser.hasNext()) {
+			Stmt statement = parser.next();
+			// Only syntax errors are shown as they are found.
+			syntaxError |= hadError;
+			if (syntaxError)
+				continue;
+
+			heldErrors = resolutionErrors;
+			resolver.resolve(List.of(statement));
+			heldErrors = null;
+			hadError = false;
+			if (resolutionErrors.length() == 0)
+				resolved.accept(statement);
+		}
+
+		if (!syntaxError && resolutionErrors.length() > 0) {
+			System.err.print(resolutionErrors);
+			hadError = true;
+		}
+		return !hadError;
+	}
+
 	// > run
 	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
+		run(new TokenBuffer(new Scanner(source)));
+	}
+
+	private static void run(TokenBuffer tokens) {
+		List<Stmt> statements = compile(new Parser(tokens));
+		if (statements == null)
+			return;
+
+		/*
+		 * Parsing Expressions print-ast < Evaluating Expressions interpreter-interpret
+		 * System.out.println(new AstPrinter().print(expression));
+		 */
+		/*
+		 * Evaluating Expressions interpreter-interpret < Statements and State
+		 * interpret-statements interpreter.interpret(expression);
+		 */
+		// > Statements and State interpret-statements
+		interpreter.interpret(statements);
+		// < Statements and State interpret-statements
+	}
+
+	// Parses, resolves and optimizes; null if there was an error.
+	static List<Stmt> compile(Parser parser) {
+		List<Stmt> statements = parseAndResolve(parser);
+		if (statements == null)
+			return null;
+		return Optimizer.optimize(statements);
+	}
+
+	private static List<Stmt> parseAndResolve(Parser parser) {
 		/*
 		 * Scanning run < Parsing Expressions print-ast
 		 * 
@@ -77,7 +315,6 @@ public class Lox {
 		 * System.out.println(token); }
 		 */
 		// > Parsing Expressions print-ast
-		Parser parser = new Parser(tokens);
 		/*
 		 * Parsing Expressions print-ast < Statements and State parse-statements Expr
 		 * expression = parser.parse();
@@ -88,7 +325,7 @@ public class Lox {
 
 		// Stop if there was a syntax error.
 		if (hadError)
-			return;
+			return null;
 
 		// < Parsing Expressions print-ast
 		// > Resolving and Binding create-resolver
@@ -98,31 +335,40 @@ public class Lox {
 
 		// Stop if there was a resolution error.
 		if (hadError)
-			return;
+			return null;
 		// < resolution-error
 
 		// < Resolving and Binding create-resolver
-		/*
-		 * Parsing Expressions print-ast < Evaluating Expressions interpreter-interpret
-		 * System.out.println(new AstPrinter().print(expression));
-		 */
-		/*
-		 * Evaluating Expressions interpreter-interpret < Statements and State
-		 * interpret-statements interpreter.interpret(expression);
-		 */
-		// > Statements and State interpret-statements
-		interpreter.interpret(statements);
-		// < Statements and State interpret-statements
+		return statements;
 	}
 
 	// < run
+	// Run with -Dlox.stats=true to get runtime counters on stderr.
+	private static void reportStats() {
+		if (!Boolean.getBoolean("lox.stats"))
+			return;
+		System.err.println(Interner.report());
+		System.err.println("symbols: " + Symbol.count() + " distinct identifiers");
+		if (Parser.LAZY_BODIES)
+			System.err.println(LazyBody.report());
+		if (FlatAst.ENABLED)
+			System.err.println(FlatAst.report());
+		if (Optimizer.ENABLED)
+			System.err.println(Optimizer.report());
+	}
+
 	// > lox-error
 	static void error(int line, String message) {
 		report(line, "", message);
 	}
 
 	private static void report(int line, String where, String message) {
-		System.err.println("[line " + line + "] Error" + where + ": " + message);
+		String error = "[line " + line + "] Error" + where + ": " + message;
+		if (heldErrors != null) {
+			heldErrors.append(error).append(System.lineSeparator());
+		} else {
+			System.err.println(error);
+		}
 		hadError = true;
 	}
 
@@ -137,8 +383,20 @@ public class Lox {
 	}
 
 	// < Parsing Expressions token-error
+	// For the Optimizer, which looks at what earlier programs have left behind.
+	static Interpreter interpreter() {
+		return interpreter;
+	}
+
+	// Puts what the script has printed so far ahead of any message that follows.
+	static void flushOutput() {
+		interpreter.flushOutput();
+	}
+
 	// > Evaluating Expressions runtime-error-method
 	static void runtimeError(RuntimeError error) {
+		// Keep the output that led up to the error ahead of the message.
+		interpreter.flushOutput();
 		if (error.token != null) {
 			System.err.println(error.getMessage() +
 					"\n[line " + error.token.line + "]");
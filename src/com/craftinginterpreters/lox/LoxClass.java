@@ -22,7 +22,7 @@ class LoxClass implements LoxCallable {
    * }
    */
   // > lox-class-methods
-  private final Map<String, LoxFunction> methods;
+  private final Map<Symbol, LoxFunction> methods;
 
   /*
    * Classes lox-class-methods < Inheritance lox-class-constructor
@@ -30,7 +30,7 @@ class LoxClass implements LoxCallable {
    */
   // > Inheritance lox-class-constructor
   LoxClass(String name, LoxClass superclass,
-      Map<String, LoxFunction> methods) {
+      Map<Symbol, LoxFunction> methods) {
     this.superclass = superclass;
     // < Inheritance lox-class-constructor
     this.name = name;
@@ -39,7 +39,7 @@ class LoxClass implements LoxCallable {
 
   // < lox-class-methods
   // > lox-class-find-method
-  LoxFunction findMethod(String name) {
+  LoxFunction findMethod(Symbol name) {
     if (methods.containsKey(name)) {
       return methods.get(name);
     }
@@ -65,7 +65,7 @@ class LoxClass implements LoxCallable {
       List<Object> arguments) {
     LoxInstance instance = new LoxInstance(this);
     // > lox-class-call-initializer
-    LoxFunction initializer = findMethod("init");
+    LoxFunction initializer = findMethod(Symbol.INIT);
     if (initializer != null) {
       initializer.bind(instance).call(interpreter, arguments);
     }
@@ -81,7 +81,7 @@ class LoxClass implements LoxCallable {
      * return 0;
      */
     // > lox-initializer-arity
-    LoxFunction initializer = findMethod("init");
+    LoxFunction initializer = findMethod(Symbol.INIT);
     if (initializer == null)
       return 0;
     return initializer.arity();
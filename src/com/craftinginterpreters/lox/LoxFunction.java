@@ -6,7 +6,7 @@ import java.util.List;
 class LoxFunction implements LoxCallable {
   private final Stmt.Function declaration;
   // > closure-field
-  private final Environment closure;
+  final Environment closure;
 
   // < closure-field
   /*
@@ -18,7 +18,9 @@ class LoxFunction implements LoxCallable {
    * LoxFunction(Stmt.Function declaration, Environment closure) {
    */
   // > Classes is-initializer-field
-  private final boolean isInitializer;
+  final boolean isInitializer;
+  // for a MemoizedFunction, made on its first call
+  private MemoizedFunction.Results results;
 
   LoxFunction(Stmt.Function declaration, Environment closure,
       boolean isInitializer) {
@@ -30,10 +32,30 @@ class LoxFunction implements LoxCallable {
     this.declaration = declaration;
   }
 
+  // for FlatFunction, whose declaration lives in a FlatAst
+  LoxFunction(Environment closure, boolean isInitializer) {
+    this(null, closure, isInitializer);
+  }
+
+  // Whether this is the function declared with name, for the Inliner.
+  boolean isDeclaredBy(Token name) {
+    return declaration != null && declaration.name == name;
+  }
+
+  // The name it was declared with, or null for a FlatFunction.
+  Token declaredName() {
+    return declaration == null ? null : declaration.name;
+  }
+
+  // Its declaration, for the Optimizer, or null for a FlatFunction.
+  Stmt.Function declaration() {
+    return declaration;
+  }
+
   // > Classes bind-instance
   LoxFunction bind(LoxInstance instance) {
     Environment environment = new Environment(closure);
-    environment.define("this", instance);
+    environment.define(Symbol.THIS, instance);
     /*
      * Classes bind-instance < Classes lox-function-bind-with-initializer
      * return new LoxFunction(declaration, environment);
@@ -59,10 +81,37 @@ class LoxFunction implements LoxCallable {
   }
 
   // < function-arity
-  // > function-call
   @Override
   public Object call(Interpreter interpreter,
       List<Object> arguments) {
+    if (declaration instanceof MemoizedFunction)
+      return memoized(interpreter, arguments);
+    return invoke(interpreter, arguments);
+  }
+
+  private Object memoized(Interpreter interpreter, List<Object> arguments) {
+    if (!((MemoizedFunction) declaration).holds(interpreter.globals)) {
+      MemoizedFunction.bypassed++;
+      return invoke(interpreter, arguments);
+    }
+
+    if (results == null)
+      results = new MemoizedFunction.Results();
+    Object result = results.get(arguments);
+    if (result != null || results.containsKey(arguments)) {
+      MemoizedFunction.hits++;
+      return result;
+    }
+
+    MemoizedFunction.misses++;
+    result = invoke(interpreter, arguments);
+    results.add(arguments, result);
+    return result;
+  }
+
+  // > function-call
+  private Object invoke(Interpreter interpreter,
+      List<Object> arguments) {
     /*
      * Functions function-call < Functions call-closure
      * Environment environment = new Environment(interpreter.globals);
@@ -71,7 +120,7 @@ class LoxFunction implements LoxCallable {
     Environment environment = new Environment(closure);
     // < call-closure
     for (int i = 0; i < declaration.params.size(); i++) {
-      environment.define(declaration.params.get(i).lexeme,
+      environment.define(declaration.params.get(i).symbol,
           arguments.get(i));
     }
 
@@ -85,7 +134,7 @@ class LoxFunction implements LoxCallable {
     } catch (Return returnValue) {
       // > Classes early-return-this
       if (isInitializer)
-        return closure.getAt(0, "this");
+        return closure.getAt(0, Symbol.THIS);
 
       // < Classes early-return-this
       return returnValue.value;
@@ -94,7 +143,7 @@ class LoxFunction implements LoxCallable {
     // > Classes return-this
 
     if (isInitializer)
-      return closure.getAt(0, "this");
+      return closure.getAt(0, Symbol.THIS);
     // < Classes return-this
     return null;
   }
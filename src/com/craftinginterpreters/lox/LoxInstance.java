@@ -7,7 +7,7 @@ import java.util.Map;
 class LoxInstance {
   private LoxClass klass;
   // > lox-instance-fields
-  private final Map<String, Object> fields = new HashMap<>();
+  private final Map<Symbol, Object> fields = new HashMap<>();
   // < lox-instance-fields
 
   LoxInstance(LoxClass klass) {
@@ -16,15 +16,19 @@ class LoxInstance {
 
   // > lox-instance-get-property
   Object get(Token name) {
-    if (fields.containsKey(name.lexeme)) {
-      return fields.get(name.lexeme);
+    return get(name.symbol, name.line);
+  }
+
+  Object get(Symbol name, int line) {
+    if (fields.containsKey(name)) {
+      return fields.get(name);
     }
 
     // if we have a data member with same name of the method the data member will
     // shadow the method
 
     // > lox-instance-get-method
-    LoxFunction method = klass.findMethod(name.lexeme);
+    LoxFunction method = klass.findMethod(name);
     /*
      * Classes lox-instance-get-method < Classes lox-instance-bind-method
      * if (method != null) return method;
@@ -35,14 +39,19 @@ class LoxInstance {
     // < lox-instance-bind-method
 
     // < lox-instance-get-method
-    throw new RuntimeError(name, // [hidden]
-        "Undefined property '" + name.lexeme + "'.");
+    throw new RuntimeError(
+        new Token(TokenType.IDENTIFIER, name.name, null, line, name), // [hidden]
+        "Undefined property '" + name.name + "'.");
   }
 
   // < lox-instance-get-property
   // > lox-instance-set-property
   void set(Token name, Object value) {
-    fields.put(name.lexeme, value);
+    set(name.symbol, value);
+  }
+
+  void set(Symbol name, Object value) {
+    fields.put(name, value);
   }
 
   // < lox-instance-set-property
@@ -0,0 +1,129 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Reads a file record by record through a memory-mapped window. Only the
+ * record being returned is ever copied onto the heap, so a file of any size
+ * is walked with a fixed amount of memory: the window is remapped further
+ * along the file as the reader advances.
+ *
+ * The file is only open while a window is being mapped; a mapping stays
+ * valid once its channel is closed, so a reader the script stops calling
+ * holds no file descriptor.
+ */
+class MappedRecords {
+  // How much of the file is mapped at a time.
+  static final int WINDOW_SIZE = Integer.getInteger("lox.map.window", 1 << 28);
+
+  private final String path;
+  private final byte delimiter;
+  private final long size;
+
+  private MappedByteBuffer window;
+  // file offset of the first byte of the window
+  private long windowStart = 0;
+  // reused to turn a record's bytes into a String
+  private byte[] scratch = new byte[256];
+
+  MappedRecords(String path, char delimiter) {
+    if (delimiter > 0x7F) {
+      throw new RuntimeError(null, "Record delimiter must be an ASCII character.");
+    }
+
+    this.path = path;
+    this.delimiter = (byte) delimiter;
+    try (FileChannel channel = open()) {
+      this.size = channel.size();
+      map(channel, 0);
+    } catch (IOException error) {
+      throw new RuntimeError(null, "Could not open '" + path + "': " + error.getMessage());
+    }
+  }
+
+  /*
+   * Returns the next record without its delimiter, or null once the file is
+   * exhausted. Line records ('\n') also drop a trailing '\r'.
+   */
+  String next() {
+    if (window == null)
+      return null;
+
+    int start = window.position();
+    int end = find(start);
+    while (end < 0) {
+      long recordStart = windowStart + start;
+      if (windowStart + window.limit() >= size) {
+        // The last record has no delimiter after it.
+        end = window.limit();
+        break;
+      }
+      if (start == 0) {
+        throw new RuntimeError(null, "Record in '" + path + "' is longer than " +
+            WINDOW_SIZE + " bytes.");
+      }
+
+      // Slide the window so the record starts at its beginning.
+      map(recordStart);
+      start = 0;
+      end = find(0);
+    }
+
+    if (start == end && end == window.limit()) {
+      // Let the mapping go.
+      window = null;
+      return null;
+    }
+
+    int length = end - start;
+    if (delimiter == '\n' && length > 0 && window.get(end - 1) == '\r')
+      length--;
+
+    if (end < window.limit()) {
+      window.position(end + 1);
+    } else {
+      window.position(end);
+    }
+    return decode(start, length);
+  }
+
+  private int find(int from) {
+    int limit = window.limit();
+    for (int i = from; i < limit; i++) {
+      if (window.get(i) == delimiter)
+        return i;
+    }
+    return -1;
+  }
+
+  private String decode(int start, int length) {
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    window.get(start, scratch, 0, length);
+    return new String(scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private FileChannel open() throws IOException {
+    return FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+  }
+
+  private void map(long offset) {
+    try (FileChannel channel = open()) {
+      map(channel, offset);
+    } catch (IOException error) {
+      throw new RuntimeError(null, "Could not map '" + path + "': " + error.getMessage());
+    }
+  }
+
+  private void map(FileChannel channel, long offset) throws IOException {
+    long length = Math.min(WINDOW_SIZE, size - offset);
+    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    windowStart = offset;
+  }
+}
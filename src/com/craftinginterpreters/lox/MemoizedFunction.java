@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/*
+ * A function that Memoizer found gives the same result whenever it is
+ * called with the same arguments, and does nothing else. Each LoxFunction
+ * made from it keeps the results of its calls in Results, by their
+ * arguments, and gives a result again rather than running the body.
+ *
+ * That holds only while the global functions it calls, and the ones they
+ * call, are the ones analyzed. Each call checks them first, and runs the
+ * body without the results when one has been declared again or assigned.
+ */
+class MemoizedFunction extends Stmt.Function {
+  // how many results each function keeps, dropping the least recently used
+  static final int SIZE = Integer.getInteger("lox.memoize.size", 1024);
+
+  static long hits = 0;
+  static long misses = 0;
+  static long evicted = 0;
+  static long bypassed = 0;
+
+  // the names the global functions it depends on were declared with
+  final List<Token> dependencies;
+
+  MemoizedFunction(Token name, List<Token> params, List<Stmt> body,
+      List<Token> dependencies) {
+    super(name, params, body);
+    this.dependencies = dependencies;
+  }
+
+  // Whether each global it depends on is still the function analyzed.
+  boolean holds(Environment globals) {
+    for (Token name : dependencies) {
+      Object value = globals.getAt(0, name.symbol);
+      if (!(value instanceof LoxFunction) ||
+          !((LoxFunction) value).isDeclaredBy(name))
+        return false;
+    }
+    return true;
+  }
+
+  // The results of one function's calls so far, by their arguments.
+  static class Results {
+    // in the order they were last used
+    private final LinkedHashMap<List<Object>, Object> results =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    Object get(List<Object> arguments) {
+      return results.get(arguments);
+    }
+
+    boolean containsKey(List<Object> arguments) {
+      return results.containsKey(arguments);
+    }
+
+    void add(List<Object> arguments, Object result) {
+      // The caller's list may be reused.
+      results.put(new ArrayList<>(arguments), result);
+      if (results.size() > SIZE) {
+        Iterator<List<Object>> eldest = results.keySet().iterator();
+        eldest.next();
+        eldest.remove();
+        evicted++;
+      }
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Makes each pure function declared at top level a MemoizedFunction. This
+ * pass is not one of the defaults: -Dlox.optimize=true,memoize adds it to
+ * them.
+ *
+ * A function is pure if its body:
+ *  - does not print, read or set properties, or declare functions or
+ *    classes, so it has no effect and makes nothing new, and its result
+ *    depends on nothing that can change;
+ *  - assigns only its own locals;
+ *  - reads no globals but pure functions, and calls only those, by name.
+ * Its arguments may still be instances and functions, which it can only
+ * pass on, return or compare.
+ *
+ * A pure function may also call one that an earlier program memoized and
+ * that its global still holds, as the Inliner's calls may. Programs with a
+ * break or continue are left alone, for the reasons TypeInference gives.
+ */
+class Memoizer extends Pass {
+  static int memoized = 0;
+
+  // the pure functions declared in this program, with the globals each
+  // reads, and then with the declared names of those it depends on
+  private final Map<Symbol, Set<Symbol>> reads = new HashMap<>();
+  private final Map<Symbol, List<Token>> dependencies = new HashMap<>();
+
+  @Override
+  List<Stmt> run(List<Stmt> statements) {
+    TypeInference.Unstructured finder = new TypeInference.Unstructured();
+    finder.run(statements);
+
+    // A name declared twice here could be either when a call runs.
+    Map<Symbol, Stmt.Function> declared = new HashMap<>();
+    Set<Symbol> names = new HashSet<>();
+    for (Stmt statement : statements) {
+      Token name = declaredName(statement);
+      if (name == null)
+        continue;
+
+      declared.remove(name.symbol);
+      if (names.add(name.symbol) && statement instanceof Stmt.Function)
+        declared.put(name.symbol, (Stmt.Function) statement);
+    }
+    if (finder.found)
+      return statements;
+
+    for (Stmt.Function function : declared.values()) {
+      Effects effects = new Effects();
+      effects.function(function);
+      if (effects.pure)
+        reads.put(function.name.symbol, effects.globals);
+    }
+
+    // Drop the functions that read anything else until none do.
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Symbol name : new ArrayList<>(reads.keySet())) {
+        for (Symbol global : reads.get(name)) {
+          if (!reads.containsKey(global) &&
+              (names.contains(global) || earlier(global) == null)) {
+            reads.remove(name);
+            changed = true;
+            break;
+          }
+        }
+      }
+    }
+
+    for (Symbol name : reads.keySet()) {
+      Set<Token> depends = new LinkedHashSet<>();
+      dependOn(name, declared, depends, new HashSet<>());
+      dependencies.put(name, new ArrayList<>(depends));
+    }
+    return super.run(statements);
+  }
+
+  // Adds the declared names of the functions that name's reads depend on.
+  private void dependOn(Symbol name, Map<Symbol, Stmt.Function> declared,
+      Set<Token> depends, Set<Symbol> visited) {
+    if (!visited.add(name))
+      return;
+    for (Symbol global : reads.get(name)) {
+      if (reads.containsKey(global)) {
+        depends.add(declared.get(global).name);
+        dependOn(global, declared, depends, visited);
+      } else {
+        // It was analyzed in an earlier program.
+        MemoizedFunction function = earlier(global);
+        depends.add(function.name);
+        depends.addAll(function.dependencies);
+      }
+    }
+  }
+
+  // The function an earlier program memoized, if its global still holds it.
+  private static MemoizedFunction earlier(Symbol name) {
+    Stmt.Function function = earlierFunction(name);
+    return function instanceof MemoizedFunction
+        ? (MemoizedFunction) function : null;
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    if (!atTopLevel() || !dependencies.containsKey(stmt.name.symbol))
+      return super.visitFunctionStmt(stmt);
+
+    MemoizedFunction function = new MemoizedFunction(stmt.name, stmt.params,
+        stmt.body, dependencies.get(stmt.name.symbol));
+    memoized++;
+    return function;
+  }
+
+  // Whether a function's body is pure but for the globals it reads.
+  private static class Effects extends Pass {
+    boolean pure = true;
+    final Set<Symbol> globals = new HashSet<>();
+
+    @Override
+    Stmt.Function function(Stmt.Function stmt) {
+      if (stmt.body instanceof LazyBody)
+        pure = false;
+      return super.function(stmt);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+      pure = false;
+      return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+      pure = false;
+      return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+      pure = false;
+      return stmt;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+      if (expr.depth < 0)
+        pure = false;
+      return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+      if (!(expr.callee instanceof Expr.Variable) || expr.callee.depth >= 0)
+        pure = false;
+      return super.visitCallExpr(expr);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+      pure = false;
+      return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+      if (expr.depth < 0)
+        globals.add(expr.name.symbol);
+      return expr;
+    }
+  }
+}
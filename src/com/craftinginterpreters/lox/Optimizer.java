@@ -0,0 +1,121 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/*
+ * Runs passes over each program between the Resolver and the Interpreter
+ * (-Dlox.optimize=true). Each Pass takes the resolved statements and gives
+ * them back rewritten, without changing what the program does: its
+ * output, its runtime errors and their lines all stay the same.
+ *
+ * -Dlox.optimize can also list the passes to run, in order, by their names
+ * in PASSES, such as -Dlox.optimize=fold,dce, where "true" stands for the
+ * default ones, as in -Dlox.optimize=true,memoize. With
+ * -Dlox.optimize.dump=true each program is printed to stderr through
+ * AstPrinter once the passes are done, one top-level statement per line.
+ */
+class Optimizer {
+  private static final Map<String, Supplier<Pass>> PASSES =
+      new LinkedHashMap<>();
+
+  static {
+    PASSES.put("inline", Inliner::new);
+    PASSES.put("fold", ConstantFolder::new);
+    PASSES.put("propagate", ConstantPropagator::new);
+    PASSES.put("dce", DeadCodeEliminator::new);
+    PASSES.put("licm", LoopInvariantMover::new);
+    PASSES.put("escape", EscapeAnalysis::new);
+    PASSES.put("types", TypeInference::new);
+    PASSES.put("counted", CountedLoopSpecializer::new);
+    PASSES.put("memoize", Memoizer::new);
+  }
+
+  // Propagation folds as it goes, so "fold" is only needed after
+  // inlining, for the bodies it copies. Moving loop invariants comes after
+  // folding, so that it does not move what folds to a literal anyway.
+  // Counting loops goes last: it gives a counted loop a second copy of its
+  // body, which passes do not walk, so what the others rewrite has to be
+  // in place by then.
+  private static final String DEFAULT =
+      "propagate,inline,fold,licm,dce,escape,types,counted";
+
+  private static final List<Supplier<Pass>> pipeline =
+      pipeline(System.getProperty("lox.optimize"));
+  static final boolean ENABLED = !pipeline.isEmpty();
+  static final boolean DUMP = Boolean.getBoolean("lox.optimize.dump");
+
+  private static List<Supplier<Pass>> pipeline(String option) {
+    List<Supplier<Pass>> passes = new ArrayList<>();
+    if (option == null || option.equals("false"))
+      return passes;
+    for (String name : option.split(",")) {
+      if (name.trim().equals("true")) {
+        passes.addAll(pipeline(DEFAULT));
+        continue;
+      }
+
+      Supplier<Pass> pass = PASSES.get(name.trim());
+      if (pass == null) {
+        System.err.println("Unknown optimizer pass '" + name.trim() +
+            "'; the passes are " + String.join(", ", PASSES.keySet()) + ".");
+        System.exit(64);
+      }
+      passes.add(pass);
+    }
+    return passes;
+  }
+
+  static List<Stmt> optimize(List<Stmt> statements) {
+    for (Supplier<Pass> pass : pipeline) {
+      statements = pass.get().run(statements);
+    }
+
+    if (DUMP) {
+      AstPrinter printer = new AstPrinter();
+      for (Stmt statement : statements) {
+        System.err.println(printer.print(statement));
+      }
+    }
+    return statements;
+  }
+
+  // A function body that was parsed on its first call (see LazyBody).
+  static List<Stmt> optimizeBody(List<Stmt> body) {
+    // Its locals share the function's scope, which the block stands for.
+    List<Stmt> statements = List.of(new Stmt.Block(body));
+    for (Supplier<Pass> pass : pipeline) {
+      statements = pass.get().run(statements);
+      // Nothing makes a pass keep the block as it is. One that drops it, or
+      // wraps it in something else, leaves no body to take out of it.
+      if (!isBlock(statements))
+        return body;
+    }
+    return ((Stmt.Block) statements.get(0)).statements;
+  }
+
+  private static boolean isBlock(List<Stmt> statements) {
+    return statements.size() == 1 && statements.get(0) instanceof Stmt.Block;
+  }
+
+  static String report() {
+    return "optimizer: " + Inliner.inlined + " calls inlined (" +
+        InlinedCall.missed + " fell back), " + ConstantFolder.folded +
+        " folded, " + ConstantPropagator.propagated + " propagated, " +
+        LoopInvariantMover.hoisted + " hoisted out of loops, " +
+        DeadCodeEliminator.removed + " statements removed, " +
+        TypeInference.specialized + " of " + TypeInference.binaries +
+        " binary operations specialized (" + SpecializedBinary.missed +
+        " fell back), " + CountedLoopSpecializer.counted +
+        " counted loops (" + CountedLoop.missed + " ran uncounted), " +
+        EscapeAnalysis.replaced + " instances kept in locals (" +
+        ScalarInstance.materialized + " made anyway), " +
+        Memoizer.memoized + " functions memoized (" + MemoizedFunction.hits +
+        " hits, " + MemoizedFunction.misses + " misses, " +
+        MemoizedFunction.evicted + " evicted, " + MemoizedFunction.bypassed +
+        " bypassed)";
+  }
+}
@@ -0,0 +1,199 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ * Where the output of `print` goes. The interpreter only ever appends whole
+ * lines; anything that must reach the terminal in order with other streams
+ * (runtime errors on stderr, input prompts, process exit) calls flush()
+ * first.
+ */
+abstract class OutputSink {
+  static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+  abstract void println(String line);
+
+  abstract void flush();
+
+  // Unbuffered sink that behaves exactly like System.out.println.
+  static OutputSink console() {
+    return new OutputSink() {
+      @Override
+      void println(String line) {
+        System.out.println(line);
+      }
+
+      @Override
+      void flush() {
+        System.out.flush();
+      }
+    };
+  }
+
+  /*
+   * Picks the sink for stdout from system properties:
+   * lox.output.async=true writes on a background thread and
+   * lox.output.buffer sets the buffer size in chars.
+   */
+  static OutputSink forStdout() {
+    OutputStream out = new FileOutputStream(FileDescriptor.out);
+    int size = Integer.getInteger("lox.output.buffer", DEFAULT_BUFFER_SIZE);
+    if (Boolean.getBoolean("lox.output.async")) {
+      return new Async(out, size);
+    }
+    return new Buffered(out, size);
+  }
+
+  /*
+   * Once a write or flush fails, it throws a RuntimeError for that one and
+   * drops all output after it, so a run reports the failure only once.
+   */
+  static class Buffered extends OutputSink {
+    private final Writer writer;
+    private boolean failed = false;
+
+    Buffered(OutputStream out, int size) {
+      this.writer = new BufferedWriter(
+          new OutputStreamWriter(out, Charset.defaultCharset()), size);
+    }
+
+    @Override
+    void println(String line) {
+      write(line);
+      write(System.lineSeparator());
+    }
+
+    void write(String text) {
+      if (failed)
+        return;
+      try {
+        writer.write(text);
+      } catch (IOException error) {
+        throw failure(error);
+      }
+    }
+
+    @Override
+    void flush() {
+      if (failed)
+        return;
+      try {
+        writer.flush();
+      } catch (IOException error) {
+        throw failure(error);
+      }
+    }
+
+    private RuntimeError failure(IOException error) {
+      failed = true;
+      return new RuntimeError(null, "Could not write output: " + error.getMessage());
+    }
+  }
+
+  /*
+   * Lines are collected into a chunk on the interpreter thread. Full chunks
+   * are handed to a daemon thread that encodes and writes them, so the
+   * interpreter never waits on a write() unless the writer falls behind by
+   * more than QUEUE_DEPTH chunks.
+   *
+   * If a write fails, the writer keeps the first error and drops the rest of
+   * the output, still releasing every flush() waiting on it. The next
+   * flush() throws that error on the interpreter thread.
+   */
+  static class Async extends OutputSink {
+    private static final int QUEUE_DEPTH = 4;
+
+    private final int size;
+    private final Buffered target;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+    private final StringBuilder chunk;
+    // the first write that failed, until flush() throws it
+    private volatile RuntimeError failure;
+
+    Async(OutputStream out, int size) {
+      this.size = size;
+      this.target = new Buffered(out, size);
+      this.chunk = new StringBuilder(size);
+
+      Thread writer = new Thread(this::drain, "lox-output");
+      writer.setDaemon(true);
+      writer.start();
+    }
+
+    @Override
+    void println(String line) {
+      chunk.append(line).append(System.lineSeparator());
+      if (chunk.length() >= size) {
+        handOff(chunk.toString());
+        chunk.setLength(0);
+      }
+    }
+
+    @Override
+    void flush() {
+      if (chunk.length() > 0) {
+        handOff(chunk.toString());
+        chunk.setLength(0);
+      }
+
+      // Wait until the writer has written and flushed everything before it.
+      CountDownLatch done = new CountDownLatch(1);
+      handOff(done);
+      try {
+        done.await();
+      } catch (InterruptedException error) {
+        Thread.currentThread().interrupt();
+      }
+
+      RuntimeError error = failure;
+      if (error != null) {
+        failure = null;
+        throw error;
+      }
+    }
+
+    private void handOff(Object item) {
+      try {
+        queue.put(item);
+      } catch (InterruptedException error) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void drain() {
+      try {
+        for (;;) {
+          Object item = queue.take();
+          if (item instanceof CountDownLatch) {
+            deliver(target::flush);
+            ((CountDownLatch) item).countDown();
+          } else {
+            String text = (String) item;
+            deliver(() -> target.write(text));
+          }
+        }
+      } catch (InterruptedException error) {
+        // Daemon thread; the JVM is going away.
+      }
+    }
+
+    // Only the first failure throws; target drops everything after it.
+    private void deliver(Runnable write) {
+      try {
+        write.run();
+      } catch (RuntimeError error) {
+        failure = error;
+      }
+    }
+  }
+}
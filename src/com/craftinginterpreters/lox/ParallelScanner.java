@@ -0,0 +1,166 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * Scans a large source in chunks side by side (-Dlox.scan.parallel=true).
+ *
+ * A quick sequential pass first finds where chunks may start: right after
+ * a newline that is outside any string or comment, where the Scanner
+ * would be at the start of a fresh lexeme. The same pass counts lines, so
+ * every chunk knows the line it starts on. The chunks are then scanned on
+ * a ForkJoinPool, each by its own Scanner over the shared text, and their
+ * tokens are stitched together in order.
+ *
+ * Unlike the streaming Scanner this needs the whole source in memory.
+ */
+class ParallelScanner {
+  static final boolean ENABLED = Boolean.getBoolean("lox.scan.parallel");
+  static final int THREADS = Integer.getInteger("lox.scan.threads",
+      Runtime.getRuntime().availableProcessors());
+  // Smaller chunks are not worth a task of their own.
+  private static final int MIN_CHUNK = 1 << 20;
+  // a generous guess at source chars per token, to size chunk buffers
+  private static final int CHARS_PER_TOKEN = 3;
+
+  // states of the boundary pass
+  private static final int CODE = 0;
+  private static final int LINE_COMMENT = 1;
+  private static final int BLOCK_COMMENT = 2;
+  private static final int STRING = 3;
+  private static final int SINGLE_QUOTED = 4;
+
+  private final char[] source;
+  private final int length;
+
+  ParallelScanner(char[] source, int length) {
+    this.source = source;
+    this.length = length;
+  }
+
+  TokenBuffer scan() {
+    int chunkSize = Math.max(MIN_CHUNK, length / (THREADS * 4) + 1);
+    List<int[]> chunks = split(chunkSize);
+
+    List<Callable<TokenBuffer>> tasks = new ArrayList<>();
+    for (int[] chunk : chunks) {
+      tasks.add(() -> {
+        Scanner scanner = new Scanner(source, chunk[0], chunk[1], chunk[2]);
+        TokenBuffer tokens = new TokenBuffer(scanner,
+            (chunk[1] - chunk[0]) / CHARS_PER_TOKEN);
+        tokens.scanAll();
+        return tokens;
+      });
+    }
+
+    List<TokenBuffer> scanned = new ArrayList<>();
+    ForkJoinPool pool = new ForkJoinPool(THREADS);
+    try {
+      for (Future<TokenBuffer> result : pool.invokeAll(tasks)) {
+        scanned.add(result.get());
+      }
+    } catch (InterruptedException | ExecutionException error) {
+      throw new IllegalStateException("Parallel scan failed.", error);
+    } finally {
+      pool.shutdown();
+    }
+
+    // Stitch the chunks together into one exactly sized buffer. It reports
+    // each chunk's scan errors as the Parser gets to them.
+    int total = 0;
+    for (TokenBuffer chunk : scanned)
+      total += chunk.size();
+    TokenBuffer tokens = new TokenBuffer(new Scanner(source, 0, length, 1), total);
+    for (TokenBuffer chunk : scanned)
+      tokens.append(chunk);
+    return tokens;
+  }
+
+  /*
+   * Cuts the source into { from, to, line } chunks of roughly chunkSize.
+   * This must agree with the Scanner on where strings and comments begin
+   * and end, and on which newlines it counts.
+   */
+  private List<int[]> split(int chunkSize) {
+    List<int[]> chunks = new ArrayList<>();
+    int state = CODE;
+    int line = 1;
+    int chunkStart = 0;
+    int chunkLine = 1;
+
+    int i = 0;
+    while (i < length) {
+      char c = source[i];
+      switch (state) {
+        case CODE:
+          i++;
+          if (c == '\n') {
+            line++;
+            if (i - chunkStart >= chunkSize) {
+              chunks.add(new int[] { chunkStart, i, chunkLine });
+              chunkStart = i;
+              chunkLine = line;
+            }
+          } else if (c == '/' && i < length && source[i] == '/') {
+            state = LINE_COMMENT;
+          } else if (c == '/' && i < length && source[i] == '*') {
+            i++;
+            state = BLOCK_COMMENT;
+          } else if (c == '"') {
+            state = STRING;
+          } else if (c == '\'') {
+            state = SINGLE_QUOTED;
+          }
+          break;
+
+        case LINE_COMMENT:
+          // The newline itself is scanned as code.
+          if (c == '\n') {
+            state = CODE;
+          } else {
+            i++;
+          }
+          break;
+
+        case BLOCK_COMMENT:
+          // Either "/*" or "*/" ends it, as in Scanner.MultilineComment().
+          if ((c == '/' || c == '*') && i + 1 < length &&
+              source[i + 1] == (c == '/' ? '*' : '/')) {
+            i += 2;
+            state = CODE;
+          } else {
+            if (c == '\n')
+              line++;
+            i++;
+          }
+          break;
+
+        case STRING:
+          // Newlines in a (broken) double-quoted string are not counted.
+          i++;
+          if (c == '"')
+            state = CODE;
+          break;
+
+        case SINGLE_QUOTED:
+          if (c == '\n') {
+            // The Scanner gives up here and scans the newline as code.
+            state = CODE;
+          } else {
+            i++;
+            if (c == '\'')
+              state = CODE;
+          }
+          break;
+      }
+    }
+
+    chunks.add(new int[] { chunkStart, length, chunkLine });
+    return chunks;
+  }
+}
@@ -17,11 +17,30 @@ class Parser {
   }
 
   // < parse-error
-  private final List<Token> tokens;
+  /*
+   * Tokens are read by index from the packed buffer, which scans ahead on
+   * demand. Token objects are only built for the tokens the AST keeps.
+   */
+  private final TokenBuffer tokens;
   private int current = 0;
 
-  Parser(List<Token> tokens) {
+  /*
+   * With -Dlox.parse.lazy=true the bodies of top-level functions and of
+   * methods in top-level classes are only brace-matched here. They are
+   * parsed (and resolved) when first run; see LazyBody.
+   */
+  static final boolean LAZY_BODIES = Boolean.getBoolean("lox.parse.lazy");
+  private final boolean lazyBodies;
+  // how many blocks the parser is inside
+  private int blockDepth = 0;
+
+  Parser(TokenBuffer tokens) {
+    this(tokens, LAZY_BODIES);
+  }
+
+  Parser(TokenBuffer tokens, boolean lazyBodies) {
     this.tokens = tokens;
+    this.lazyBodies = lazyBodies;
   }
 
   /*
@@ -50,6 +69,19 @@ class Parser {
     return statements; // [parse-error-handling]
   }
 
+  /*
+   * The program one top-level declaration at a time, for callers that do
+   * something with each before the next is parsed. next() returns null for
+   * a declaration with a syntax error, once the error has been reported.
+   */
+  boolean hasNext() {
+    return !isAtEnd();
+  }
+
+  Stmt next() {
+    return declaration();
+  }
+
   // < Statements and State parse
   // > expression
   private Expr expression() {
@@ -90,7 +122,8 @@ class Parser {
   // < Statements and State declaration
   // > Classes parse-class-declaration
   private Stmt classDeclaration() {
-    Token name = consume(IDENTIFIER, "Expect class name.");
+    consume(IDENTIFIER, "Expect class name.");
+    Token name = previous();
     // > Inheritance parse-superclass
 
     Expr.Variable superclass = null;
@@ -265,7 +298,8 @@ class Parser {
   // < Functions parse-return-statement
   // > Statements and State parse-var-declaration
   private Stmt varDeclaration() {
-    Token name = consume(IDENTIFIER, "Expect variable name.");
+    consume(IDENTIFIER, "Expect variable name.");
+    Token name = previous();
 
     Expr initializer = null;
     if (match(EQUAL)) {
@@ -328,7 +362,8 @@ class Parser {
     // // generate a unique name for the anonymous function
     // name = new Token(IDENTIFIER, "anonymous_", anonymousFunctionCounter++, line);
     // }
-    Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+    consume(IDENTIFIER, "Expect " + kind + " name.");
+    Token name = previous();
     // > parse-parameters
     consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
     List<Token> parameters = new ArrayList<>();
@@ -338,8 +373,8 @@ class Parser {
           error(peek(), "Can't have more than 255 parameters.");
         }
 
-        parameters.add(
-            consume(IDENTIFIER, "Expect parameter name."));
+        consume(IDENTIFIER, "Expect parameter name.");
+        parameters.add(previous());
       } while (match(COMMA));
     }
     consume(RIGHT_PAREN, "Expect ')' after parameters.");
@@ -347,6 +382,11 @@ class Parser {
     // > parse-body
 
     consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+    if (lazyBodies && blockDepth == 0) {
+      LazyBody body = skipBody(name);
+      if (body != null)
+        return new Stmt.Function(name, parameters, body);
+    }
     List<Stmt> body = block();
     return new Stmt.Function(name, parameters, body);
     // < parse-body
@@ -357,14 +397,45 @@ class Parser {
   private List<Stmt> block() {
     List<Stmt> statements = new ArrayList<>();
 
-    while (!check(RIGHT_BRACE) && !isAtEnd()) {
-      statements.add(declaration());
+    blockDepth++;
+    try {
+      while (!check(RIGHT_BRACE) && !isAtEnd()) {
+        statements.add(declaration());
+      }
+    } finally {
+      blockDepth--;
     }
 
     consume(RIGHT_BRACE, "Expect '}' after block.");
     return statements;
   }
 
+  /*
+   * Steps over a function body by matching braces, keeping its tokens for
+   * later. Returns null if the body never closes, so that the full parse
+   * reports the error.
+   */
+  private LazyBody skipBody(Token name) {
+    int depth = 1;
+    int end = current;
+    for (;; end++) {
+      TokenType type = tokens.type(end);
+      if (type == EOF)
+        return null;
+      if (type == LEFT_BRACE) {
+        depth++;
+      } else if (type == RIGHT_BRACE && --depth == 0) {
+        break;
+      }
+    }
+
+    LazyBody body = new LazyBody(name, tokens.slice(current, end));
+    // Step past the closing brace.
+    current = end;
+    advance();
+    return body;
+  }
+
   // < Statements and State block
   // > Statements and State parse-assignment
   private Expr assignment() {
@@ -373,11 +444,13 @@ class Parser {
      * Expr expr = equality();
      */
     // > Control Flow or-in-assignment
-    Expr expr = or();
+    Expr expr = binary(OR_PRECEDENCE);
     // < Control Flow or-in-assignment
 
     if (match(EQUAL)) {
-      Token equals = previous();
+      // Only an invalid target needs the token, and by then it may have
+      // been released, so just its line is kept.
+      int line = tokens.line(current - 1);
       Expr value = assignment();
 
       if (expr instanceof Expr.Variable) {
@@ -390,97 +463,67 @@ class Parser {
         // < Classes assign-set
       }
 
-      error(equals, "Invalid assignment target."); // [no-throw]
+      error(new Token(EQUAL, "=", null, line),
+          "Invalid assignment target."); // [no-throw]
     }
 
     return expr;
   }
 
   // < Statements and State parse-assignment
-  // > Control Flow or
-  private Expr or() {
-    Expr expr = and();
-
-    while (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  // < Control Flow or
-  // > Control Flow and
-  private Expr and() {
-    Expr expr = equality();
-
-    while (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  // < Control Flow and
-  // > equality
-  private Expr equality() {
-    Expr expr = comparison();
-
-    while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  // < equality
-  // > comparison
-  private Expr comparison() {
-    Expr expr = term();
-
-    while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = term();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  // < comparison
-  // > term
-  private Expr term() {
-    Expr expr = factor();
-
-    while (match(MINUS, PLUS)) {
-      Token operator = previous();
-      Expr right = factor();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  // < term
-  // > factor
-  private Expr factor() {
+  /*
+   * Binary operators are parsed by precedence climbing rather than with one
+   * method per precedence level: a single loop looks up how tightly the
+   * next token binds in a table indexed by token type. A bare operand costs
+   * one trip through binary() however many levels there are.
+   */
+  private static final int NONE = 0;
+  private static final int OR_PRECEDENCE = 1;
+  private static final int AND_PRECEDENCE = 2;
+  private static final int EQUALITY = 3;
+  private static final int COMPARISON = 4;
+  private static final int TERM = 5;
+  private static final int FACTOR = 6;
+
+  // how tightly each token binds as a binary operator, by ordinal
+  private static final int[] PRECEDENCE = new int[TokenType.values().length];
+
+  static {
+    PRECEDENCE[OR.ordinal()] = OR_PRECEDENCE;
+    PRECEDENCE[AND.ordinal()] = AND_PRECEDENCE;
+    PRECEDENCE[BANG_EQUAL.ordinal()] = EQUALITY;
+    PRECEDENCE[EQUAL_EQUAL.ordinal()] = EQUALITY;
+    PRECEDENCE[GREATER.ordinal()] = COMPARISON;
+    PRECEDENCE[GREATER_EQUAL.ordinal()] = COMPARISON;
+    PRECEDENCE[LESS.ordinal()] = COMPARISON;
+    PRECEDENCE[LESS_EQUAL.ordinal()] = COMPARISON;
+    PRECEDENCE[MINUS.ordinal()] = TERM;
+    PRECEDENCE[PLUS.ordinal()] = TERM;
+    PRECEDENCE[SLASH.ordinal()] = FACTOR;
+    PRECEDENCE[STAR.ordinal()] = FACTOR;
+  }
+
+  // Parses operators binding at least as tightly as minimum, left to right.
+  private Expr binary(int minimum) {
     Expr expr = unary();
 
-    while (match(SLASH, STAR)) {
+    while (true) {
+      int precedence = PRECEDENCE[tokens.type(current).ordinal()];
+      if (precedence == NONE || precedence < minimum)
+        return expr;
+
+      advance();
       Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
+      // The right operand only takes tighter operators: left-associative.
+      Expr right = binary(precedence + 1);
+      if (precedence <= AND_PRECEDENCE) {
+        expr = new Expr.Logical(expr, operator, right);
+      } else {
+        expr = new Expr.Binary(expr, operator, right);
+      }
     }
-
-    return expr;
   }
 
-  // < factor
   // > unary
   private Expr unary() {
     if (match(BANG, MINUS)) {
@@ -513,8 +556,8 @@ class Parser {
       } while (match(COMMA));
     }
 
-    Token paren = consume(RIGHT_PAREN,
-        "Expect ')' after arguments.");
+    consume(RIGHT_PAREN, "Expect ')' after arguments.");
+    Token paren = previous();
 
     return new Expr.Call(callee, paren, arguments);
   }
@@ -529,9 +572,8 @@ class Parser {
         expr = finishCall(expr);
         // > Classes parse-property
       } else if (match(DOT)) {
-        Token name = consume(IDENTIFIER,
-            "Expect property name after '.'.");
-        expr = new Expr.Get(expr, name);
+        consume(IDENTIFIER, "Expect property name after '.'.");
+        expr = new Expr.Get(expr, previous());
         // < Classes parse-property
       } else {
         break;
@@ -555,15 +597,15 @@ class Parser {
       return new Expr.Literal(null);
 
     if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
+      return new Expr.Literal(tokens.literal(current - 1));
     }
     // > Inheritance parse-super
 
     if (match(SUPER)) {
       Token keyword = previous();
       consume(DOT, "Expect '.' after 'super'.");
-      Token method = consume(IDENTIFIER,
-          "Expect superclass method name.");
+      consume(IDENTIFIER, "Expect superclass method name.");
+      Token method = previous();
       return new Expr.Super(keyword, method);
     }
     // < Inheritance parse-super
@@ -592,22 +634,29 @@ class Parser {
 
   // < primary
   // > match
-  private boolean match(TokenType... types) {
-    for (TokenType type : types) {
-      if (check(type)) {
-        advance();
-        return true;
-      }
+  // Overloads instead of varargs, so matching never allocates.
+  private boolean match(TokenType type) {
+    if (check(type)) {
+      advance();
+      return true;
     }
 
     return false;
   }
 
+  private boolean match(TokenType first, TokenType second) {
+    return match(first) || match(second);
+  }
+
   // < match
   // > consume
-  private Token consume(TokenType type, String message) {
-    if (check(type))
-      return advance();
+  // Steps over the token without building it; previous() does that for
+  // the callers that keep it.
+  private void consume(TokenType type, String message) {
+    if (check(type)) {
+      advance();
+      return;
+    }
 
     throw error(peek(), message);
   }
@@ -617,29 +666,31 @@ class Parser {
   private boolean check(TokenType type) {
     if (isAtEnd())
       return false;
-    return peek().type == type;
+    return tokens.check(current, type);
   }
 
   // < check
   // > advance
-  private Token advance() {
-    if (!isAtEnd())
+  private void advance() {
+    if (!isAtEnd()) {
       current++;
-    return previous();
+      // Only previous() can still look behind the current token.
+      tokens.release(current - 1);
+    }
   }
 
   // < advance
   // > utils
   private boolean isAtEnd() {
-    return peek().type == EOF;
+    return tokens.check(current, EOF);
   }
 
   private Token peek() {
-    return tokens.get(current);
+    return tokens.token(current);
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return tokens.token(current - 1);
   }
 
   // < utils
@@ -649,13 +700,6 @@ class Parser {
     return new ParseError();
   }
 
-  // handle break statement
-  private Stmt breakStatement() {
-    Token keyword = previous();
-    consume(SEMICOLON, "Expect ';' after break statement.");
-    return new Stmt.Break(keyword);
-  }
-
   // handle continue statement
   private Stmt continueStatement() {
     Token keyword = previous();
@@ -678,10 +722,10 @@ class Parser {
     advance();
 
     while (!isAtEnd()) {
-      if (previous().type == SEMICOLON)
+      if (tokens.check(current - 1, SEMICOLON))
         return;
 
-      switch (peek().type) {
+      switch (tokens.type(current)) {
         case CLASS:
         case FUN:
         case VAR:
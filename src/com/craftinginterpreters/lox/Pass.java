@@ -0,0 +1,468 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/*
+ * One of the Optimizer's passes: a walk over a resolved program that
+ * returns it rewritten. Every visit method here returns its node as it is,
+ * or a copy when one of its children was replaced, so a pass overrides only
+ * the nodes it changes. Visiting a statement may give null, which removes
+ * it from its list.
+ *
+ * The walk keeps the same scopes as the Resolver, so declaration() can
+ * tell which local a variable refers to from the depth in its node.
+ * Globals are not tracked, since any later code can assign to them.
+ */
+abstract class Pass implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  // the name each local was declared with, by scope
+  private final Stack<Map<Symbol, Token>> scopes = new Stack<>();
+
+  List<Stmt> run(List<Stmt> statements) {
+    return statements(statements);
+  }
+
+  // The same list when none of its statements changed.
+  List<Stmt> statements(List<Stmt> statements) {
+    List<Stmt> result = null;
+    for (int i = 0; i < statements.size(); i++) {
+      Stmt statement = statements.get(i);
+      Stmt rewritten = statement.accept(this);
+      if (rewritten != statement && result == null)
+        result = new ArrayList<>(statements.subList(0, i));
+      if (result != null && rewritten != null)
+        result.add(rewritten);
+    }
+    return result == null ? statements : result;
+  }
+
+  // For a statement that has to stay, such as the body of a loop.
+  Stmt statement(Stmt stmt) {
+    Stmt rewritten = stmt.accept(this);
+    return rewritten == null ? new Stmt.Block(new ArrayList<>()) : rewritten;
+  }
+
+  Expr expression(Expr expr) {
+    return expr.accept(this);
+  }
+
+  List<Expr> expressions(List<Expr> exprs) {
+    List<Expr> result = null;
+    for (int i = 0; i < exprs.size(); i++) {
+      Expr expr = exprs.get(i);
+      Expr rewritten = expression(expr);
+      if (rewritten != expr && result == null)
+        result = new ArrayList<>(exprs.subList(0, i));
+      if (result != null)
+        result.add(rewritten);
+    }
+    return result == null ? exprs : result;
+  }
+
+  /*
+   * The name the local that a variable or assignment refers to was
+   * declared with, or null for a global or a variable declared outside
+   * the code this pass is given.
+   */
+  Token declaration(Expr expr, Token name) {
+    return declaration(expr.depth, name.symbol);
+  }
+
+  // The same, for a local that is depth scopes out from this point.
+  Token declaration(int depth, Symbol symbol) {
+    int index = scopes.size() - 1 - depth;
+    if (depth < 0 || index < 0)
+      return null;
+    return scopes.get(index).get(symbol);
+  }
+
+  // The locals that code at this point can see.
+  List<Token> visibleLocals() {
+    List<Token> locals = new ArrayList<>();
+    for (Map<Symbol, Token> scope : scopes) {
+      for (Token name : scope.values()) {
+        if (name != null)
+          locals.add(name);
+      }
+    }
+    return locals;
+  }
+
+  boolean atTopLevel() {
+    return scopes.isEmpty();
+  }
+
+  // How many scopes this pass has entered at this point.
+  int scopeCount() {
+    return scopes.size();
+  }
+
+  /*
+   * The locals that a function nested in the one declaring them assigns,
+   * which any call could change. A function whose body has not been parsed
+   * yet could assign any local it can see.
+   */
+  static Set<Token> assignedByFunctions(List<Stmt> statements) {
+    Captures finder = new Captures(false);
+    finder.run(statements);
+    return finder.captured;
+  }
+
+  // The locals that a function nested in the one declaring them reads or
+  // assigns.
+  static Set<Token> capturedByFunctions(List<Stmt> statements) {
+    Captures finder = new Captures(true);
+    finder.run(statements);
+    return finder.captured;
+  }
+
+  // The name a top-level statement declares, or null.
+  static Token declaredName(Stmt statement) {
+    if (statement instanceof Stmt.Function)
+      return ((Stmt.Function) statement).name;
+    if (statement instanceof Stmt.Class)
+      return ((Stmt.Class) statement).name;
+    if (statement instanceof Stmt.Var)
+      return ((Stmt.Var) statement).name;
+    return null;
+  }
+
+  /*
+   * What a global holds now, as programs run before this one left it. A
+   * pass asks only about names the program it is given does not declare.
+   */
+  static Object earlierGlobal(Symbol name) {
+    return Lox.interpreter().globals.getAt(0, name);
+  }
+
+  // The declaration of the function an earlier program left in a global.
+  static Stmt.Function earlierFunction(Symbol name) {
+    Object value = earlierGlobal(name);
+    return value instanceof LoxFunction ? ((LoxFunction) value).declaration()
+        : null;
+  }
+
+  private void beginScope() {
+    scopes.push(new HashMap<>());
+  }
+
+  private void endScope() {
+    scopes.pop();
+  }
+
+  private void declare(Token name) {
+    if (!scopes.isEmpty())
+      scopes.peek().put(name.symbol, name);
+  }
+
+  // A function's body has not been parsed yet if it is a LazyBody.
+  Stmt.Function function(Stmt.Function stmt) {
+    if (stmt.body instanceof LazyBody)
+      return stmt;
+
+    beginScope();
+    for (Token param : stmt.params) {
+      declare(param);
+    }
+    List<Stmt> body = statements(stmt.body);
+    endScope();
+
+    if (body == stmt.body)
+      return stmt;
+    if (stmt instanceof MemoizedFunction) {
+      return new MemoizedFunction(stmt.name, stmt.params, body,
+          ((MemoizedFunction) stmt).dependencies);
+    }
+    return new Stmt.Function(stmt.name, stmt.params, body);
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    List<Stmt> statements = statements(stmt.statements);
+    endScope();
+
+    if (statements == stmt.statements)
+      return stmt;
+    return new Stmt.Block(statements);
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    declare(stmt.name);
+
+    // The superclass is left alone: it has to stay a variable.
+    if (stmt.superclass != null) {
+      beginScope();
+      scopes.peek().put(Symbol.SUPER, null);
+    }
+
+    beginScope();
+    scopes.peek().put(Symbol.THIS, null);
+    List<Stmt.Function> methods = null;
+    for (int i = 0; i < stmt.methods.size(); i++) {
+      Stmt.Function method = stmt.methods.get(i);
+      Stmt.Function rewritten = function(method);
+      if (rewritten != method && methods == null)
+        methods = new ArrayList<>(stmt.methods.subList(0, i));
+      if (methods != null)
+        methods.add(rewritten);
+    }
+    endScope();
+
+    if (stmt.superclass != null)
+      endScope();
+
+    if (methods == null)
+      return stmt;
+    return new Stmt.Class(stmt.name, stmt.superclass, methods);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = expression(stmt.expression);
+    if (expression == stmt.expression)
+      return stmt;
+    return new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    declare(stmt.name);
+    return function(stmt);
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = expression(stmt.condition);
+    Stmt thenBranch = statement(stmt.thenBranch);
+    Stmt elseBranch = stmt.elseBranch == null ? null
+        : stmt.elseBranch.accept(this);
+
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+        elseBranch == stmt.elseBranch)
+      return stmt;
+    return new Stmt.If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    Expr expression = expression(stmt.expression);
+    if (expression == stmt.expression)
+      return stmt;
+    return new Stmt.Print(expression);
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null)
+      return stmt;
+
+    Expr value = expression(stmt.value);
+    if (value == stmt.value)
+      return stmt;
+    return new Stmt.Return(stmt.keyword, value);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = stmt.initializer == null ? null
+        : expression(stmt.initializer);
+    declare(stmt.name);
+
+    if (initializer == stmt.initializer)
+      return stmt;
+    if (stmt instanceof ScalarInstance) {
+      ScalarInstance scalar = (ScalarInstance) stmt;
+      return new ScalarInstance(stmt.name, initializer, scalar.init,
+          scalar.fields, scalar.arguments, scalar.literals);
+    }
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = expression(stmt.condition);
+    Stmt body = statement(stmt.body);
+
+    if (condition == stmt.condition && body == stmt.body)
+      return stmt;
+    return new Stmt.While(condition, body);
+  }
+
+  @Override
+  public Stmt visitBreakStmt(Stmt.Break stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitContinueStmt(Stmt.Continue stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = expression(expr.value);
+    if (value == expr.value)
+      return expr;
+
+    Expr.Assign assign = new Expr.Assign(expr.name, value);
+    assign.depth = expr.depth;
+    return assign;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = expression(expr.left);
+    Expr right = expression(expr.right);
+
+    if (left == expr.left && right == expr.right)
+      return expr;
+    if (expr instanceof SpecializedBinary) {
+      return new SpecializedBinary(left, expr.operator, right,
+          ((SpecializedBinary) expr).strings);
+    }
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = expression(expr.callee);
+    List<Expr> arguments = expressions(expr.arguments);
+    if (expr instanceof InlinedCall) {
+      InlinedCall inlined = (InlinedCall) expr;
+      Expr body = expression(inlined.body);
+      if (callee == expr.callee && arguments == expr.arguments &&
+          body == inlined.body)
+        return expr;
+      return new InlinedCall(callee, expr.paren, arguments, inlined.function,
+          body);
+    }
+
+    if (callee == expr.callee && arguments == expr.arguments)
+      return expr;
+    return new Expr.Call(callee, expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    Expr object = expression(expr.object);
+    if (object == expr.object)
+      return expr;
+    if (expr instanceof ScalarInstance.Get) {
+      return new ScalarInstance.Get(object, expr.name,
+          ((ScalarInstance.Get) expr).field);
+    }
+    return new Expr.Get(object, expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    Expr expression = expression(expr.expression);
+    if (expression == expr.expression)
+      return expr;
+    return new Expr.Grouping(expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = expression(expr.left);
+    Expr right = expression(expr.right);
+
+    if (left == expr.left && right == expr.right)
+      return expr;
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    Expr object = expression(expr.object);
+    Expr value = expression(expr.value);
+
+    if (object == expr.object && value == expr.value)
+      return expr;
+    if (expr instanceof ScalarInstance.Set) {
+      return new ScalarInstance.Set(object, expr.name, value,
+          ((ScalarInstance.Set) expr).field);
+    }
+    return new Expr.Set(object, expr.name, value);
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = expression(expr.right);
+    if (right == expr.right)
+      return expr;
+    return new Expr.Unary(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  private static class Captures extends Pass {
+    final Set<Token> captured = new HashSet<>();
+    // whether reading a local captures it, as well as assigning it
+    private final boolean reads;
+    // the scope count where each function being walked starts
+    private final Stack<Integer> functions = new Stack<>();
+
+    Captures(boolean reads) {
+      this.reads = reads;
+    }
+
+    @Override
+    Stmt.Function function(Stmt.Function stmt) {
+      if (stmt.body instanceof LazyBody) {
+        captured.addAll(visibleLocals());
+        return stmt;
+      }
+
+      functions.push(scopeCount());
+      super.function(stmt);
+      functions.pop();
+      return stmt;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+      capture(expr, expr.name);
+      return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+      if (reads)
+        capture(expr, expr.name);
+      return expr;
+    }
+
+    private void capture(Expr expr, Token name) {
+      Token declaration = declaration(expr, name);
+      if (declaration != null && !functions.isEmpty() &&
+          expr.depth >= scopeCount() - functions.peek())
+        captured.add(declaration);
+    }
+  }
+}
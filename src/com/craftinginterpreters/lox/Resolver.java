@@ -1,6 +1,7 @@
 //> Resolving and Binding resolver
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,12 +21,12 @@ import java.util.Stack;
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   private final Interpreter interpreter;
 
-  private Map<String, Boolean> globalScope = new HashMap<>();
+  private Map<Symbol, Boolean> globalScope = new HashMap<>();
   private Stack<Boolean> inLoop = new Stack<>();
   private Stack<Boolean> breakUsedInLoop = new Stack<>();
 
   // > scopes-field
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+  private final Stack<Map<Symbol, Boolean>> scopes = new Stack<>();
   // < scopes-field
   // > function-type-field
   private FunctionType currentFunction = FunctionType.NONE;
@@ -100,7 +101,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     // > inherit-self
     if (stmt.superclass != null &&
-        stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
+        stmt.name.symbol == stmt.superclass.name.symbol) {
       Lox.error(stmt.superclass.name,
           "A class can't inherit from itself.");
     }
@@ -117,20 +118,20 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     if (stmt.superclass != null) {
       beginScope();
-      scopes.peek().put("super", true);
+      scopes.peek().put(Symbol.SUPER, true);
     }
     // < Inheritance begin-super-scope
     // > resolve-methods
 
     // > resolver-begin-this-scope
     beginScope();
-    scopes.peek().put("this", true);
+    scopes.peek().put(Symbol.THIS, true);
 
     // < resolver-begin-this-scope
     for (Stmt.Function method : stmt.methods) {
       FunctionType declaration = FunctionType.METHOD;
       // > resolver-initializer-type
-      if (method.name.lexeme.equals("init")) {
+      if (method.name.symbol == Symbol.INIT) {
         declaration = FunctionType.INITIALIZER;
       }
 
@@ -266,9 +267,28 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitBreakStmt(Stmt.Break stmt) {
     checkBreak(stmt.keyword);
+    breaks();
     return null;
   }
 
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    if (inLoop.isEmpty() || !inLoop.peek()) {
+      Lox.error(stmt.keyword, "Cannot use 'continue' outside of a loop.");
+    }
+    breaks();
+    return null;
+  }
+
+  // Tells the Interpreter that a break or continue flag may get set.
+  private void breaks() {
+    if (currentFunction == FunctionType.NONE) {
+      interpreter.breaksAtTopLevel = true;
+    } else {
+      interpreter.breaksInFunctions = true;
+    }
+  }
+
   // < visit-while-stmt
   // > visit-assign-expr
   @Override
@@ -395,7 +415,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
     if (!scopes.isEmpty() &&
-        scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        scopes.peek().get(expr.name.symbol) == Boolean.FALSE) {
       Lox.error(expr.name,
           "Can't read local variable in its own initializer.");
     }
@@ -430,16 +450,44 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     currentFunction = type;
 
     // < set-current-function
+    if (function.body instanceof LazyBody) {
+      deferFunction(function, type);
+    } else {
+      resolveBody(function.params, function.body);
+    }
+    // > restore-current-function
+    currentFunction = enclosingFunction;
+    // < restore-current-function
+  }
+
+  private void resolveBody(List<Token> params, List<Stmt> body) {
     beginScope();
-    for (Token param : function.params) {
+    for (Token param : params) {
       declare(param);
       define(param);
     }
-    resolve(function.body);
+    resolve(body);
     endScope();
-    // > restore-current-function
-    currentFunction = enclosingFunction;
-    // < restore-current-function
+  }
+
+  /*
+   * A lazy body is resolved once it has been parsed, by a fresh Resolver
+   * that starts from a copy of the scopes and class around it here.
+   */
+  private void deferFunction(Stmt.Function function, FunctionType type) {
+    List<Map<Symbol, Boolean>> enclosing = new ArrayList<>();
+    for (Map<Symbol, Boolean> scope : scopes) {
+      enclosing.add(new HashMap<>(scope));
+    }
+    ClassType enclosingClass = currentClass;
+
+    ((LazyBody) function.body).resolveWith(body -> {
+      Resolver resolver = new Resolver(interpreter);
+      resolver.scopes.addAll(enclosing);
+      resolver.currentClass = enclosingClass;
+      resolver.currentFunction = type;
+      resolver.resolveBody(function.params, body);
+    });
   }
 
   // handle anonymous functions
@@ -457,18 +505,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   // currentFunction = enclosingFunction;
   // }
 
+  // The Interpreter runs the body in the environment around the loop, so
+  // it gets no scope of its own here.
   private void resolveLoopBody(Stmt stmt) {
     startLoop();
-    beginScope();
     stmt.accept(this);
     endLoop();
-    endScope();
   }
 
   // < resolve-function
   // > begin-scope
   private void beginScope() {
-    scopes.push(new HashMap<String, Boolean>());
+    scopes.push(new HashMap<Symbol, Boolean>());
   }
 
   // < begin-scope
@@ -505,15 +553,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     if (scopes.isEmpty())
       return;
 
-    Map<String, Boolean> scope = scopes.peek();
+    Map<Symbol, Boolean> scope = scopes.peek();
     // > duplicate-variable
-    if (scope.containsKey(name.lexeme)) {
+    if (scope.containsKey(name.symbol)) {
       Lox.error(name,
           "Already a variable with this name in this scope.");
     }
 
     // < duplicate-variable
-    scope.put(name.lexeme, false);
+    scope.put(name.symbol, false);
   }
 
   // < declare
@@ -521,14 +569,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   private void define(Token name) {
     if (scopes.isEmpty())
       return;
-    scopes.peek().put(name.lexeme, true);
+    scopes.peek().put(name.symbol, true);
   }
 
   // < define
   // > resolve-local
   private void resolveLocal(Expr expr, Token name) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
+      if (scopes.get(i).containsKey(name.symbol)) {
         interpreter.resolve(expr, scopes.size() - 1 - i);
         return;
       }
@@ -0,0 +1,60 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/*
+ * A local that EscapeAnalysis found is only ever used to read and set
+ * fields, declared with a call to a class whose initializer does nothing
+ * but set fields to its parameters or to literals. Rather than make the
+ * instance, the Interpreter defines a local for each field the
+ * initializer sets, in the scope the instance's local would be in, and
+ * the Gets and Sets on it read and assign those. A field's local is named
+ * after the instance's local and the field, such as "p.x", which no
+ * identifier can be.
+ *
+ * The class is still looked up. If its initializer is no longer the one
+ * analyzed, the instance is made as the Var would make it, and its fields'
+ * locals hold MATERIALIZED, which sends the Gets and Sets to the instance.
+ */
+class ScalarInstance extends Stmt.Var {
+  static final Object MATERIALIZED = new Object();
+  static int materialized = 0;
+
+  // the name of the initializer analyzed
+  final Token init;
+  // the local for each field the initializer sets, in the order it does
+  final List<Token> fields;
+  // for each, the index of the argument it is set to, or -1 for a literal
+  final int[] arguments;
+  final Object[] literals;
+
+  ScalarInstance(Token name, Expr initializer, Token init, List<Token> fields,
+      int[] arguments, Object[] literals) {
+    super(name, initializer);
+    this.init = init;
+    this.fields = fields;
+    this.arguments = arguments;
+    this.literals = literals;
+  }
+
+  // A read of a field of the instance.
+  static class Get extends Expr.Get {
+    // the field's local, at the depth of the instance's
+    final Expr.Variable field;
+
+    Get(Expr object, Token name, Expr.Variable field) {
+      super(object, name);
+      this.field = field;
+    }
+  }
+
+  // An assignment to a field of the instance.
+  static class Set extends Expr.Set {
+    final Expr.Variable field;
+
+    Set(Expr object, Token name, Expr value, Expr.Variable field) {
+      super(object, name, value);
+      this.field = field;
+    }
+  }
+}
@@ -1,43 +1,109 @@
 //> Scanning scanner-class
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static com.craftinginterpreters.lox.TokenType.*; // [static-import]
 
 class Scanner {
-	// > keyword-map
-	private static final Map<String, TokenType> keywords;
+	/*
+	 * scanToken() dispatches on a character class looked up in a table rather
+	 * than through a chain of comparisons. Everything outside ASCII is OTHER.
+	 */
+	private static final byte OTHER = 0;
+	private static final byte BLANK = 1;
+	private static final byte NEWLINE = 2;
+	private static final byte DIGIT = 3;
+	private static final byte ALPHA = 4;
+	// a token on its own, e.g. '('
+	private static final byte SINGLE = 5;
+	// a token that may be followed by '=', e.g. '<' and '<='
+	private static final byte OPERATOR = 6;
+	private static final byte SLASH_CHAR = 7;
+	private static final byte DOUBLE_QUOTE = 8;
+	private static final byte SINGLE_QUOTE = 9;
+
+	private static final byte[] CLASSES = new byte[128];
+	// the token a SINGLE or OPERATOR character makes by itself
+	private static final TokenType[] SINGLE_TOKENS = new TokenType[128];
+	// the token an OPERATOR character makes together with a following '='
+	private static final TokenType[] EQUAL_TOKENS = new TokenType[128];
 
 	static {
-		keywords = new HashMap<>();
-		keywords.put("and", AND);
-		keywords.put("class", CLASS);
-		keywords.put("else", ELSE);
-		keywords.put("false", FALSE);
-		keywords.put("for", FOR);
-		keywords.put("fun", FUN);
-		keywords.put("if", IF);
-		keywords.put("nil", NIL);
-		keywords.put("or", OR);
-		keywords.put("print", PRINT);
-		keywords.put("return", RETURN);
-		keywords.put("super", SUPER);
-		keywords.put("this", THIS);
-		keywords.put("true", TRUE);
-		keywords.put("var", VAR);
-		keywords.put("while", WHILE);
-		// handle break statement
-		keywords.put("break", BREAK);
-		// handle continue statement
-		keywords.put("continue", CONTINUE);
-	}
-	// < keyword-map
-	private final String source;
-	private final List<Token> tokens = new ArrayList<>();
+		CLASSES[' '] = BLANK;
+		CLASSES['\r'] = BLANK;
+		CLASSES['\t'] = BLANK;
+		CLASSES['\n'] = NEWLINE;
+		for (char c = '0'; c <= '9'; c++)
+			CLASSES[c] = DIGIT;
+		for (char c = 'a'; c <= 'z'; c++)
+			CLASSES[c] = ALPHA;
+		for (char c = 'A'; c <= 'Z'; c++)
+			CLASSES[c] = ALPHA;
+		CLASSES['_'] = ALPHA;
+
+		single('(', LEFT_PAREN);
+		single(')', RIGHT_PAREN);
+		single('{', LEFT_BRACE);
+		single('}', RIGHT_BRACE);
+		single(',', COMMA);
+		single('.', DOT);
+		single('-', MINUS);
+		single('+', PLUS);
+		single(';', SEMICOLON);
+		single('*', STAR);
+
+		operator('!', BANG, BANG_EQUAL);
+		operator('=', EQUAL, EQUAL_EQUAL);
+		operator('<', LESS, LESS_EQUAL);
+		operator('>', GREATER, GREATER_EQUAL);
+
+		CLASSES['/'] = SLASH_CHAR;
+		CLASSES['"'] = DOUBLE_QUOTE;
+		CLASSES['\''] = SINGLE_QUOTE;
+	}
+
+	private static void single(char c, TokenType type) {
+		CLASSES[c] = SINGLE;
+		SINGLE_TOKENS[c] = type;
+	}
+
+	private static void operator(char c, TokenType type, TokenType withEqual) {
+		CLASSES[c] = OPERATOR;
+		SINGLE_TOKENS[c] = type;
+		EQUAL_TOKENS[c] = withEqual;
+	}
+
+	/*
+	 * The source is read incrementally into a window. Only the text from the
+	 * start of the current lexeme onwards has to stay in it, so scanning needs
+	 * memory for the longest token rather than for the whole file. start and
+	 * current are indexes into the window.
+	 */
+	private static final int WINDOW_SIZE = 1 << 16;
+
+	// Exactly one of these is the source; both are null once it is exhausted.
+	private Reader reader;
+	private ByteBuffer bytes;
+	private CharsetDecoder decoder;
+
+	private char[] window = new char[WINDOW_SIZE];
+	private int limit = 0;
+	// source offset of window[0]
+	private int windowOffset = 0;
+	// where scanToken() puts what it finds, and whether it found anything
+	private TokenBuffer tokens;
+	private boolean scanned;
+	// whether errors are left in the TokenBuffer rather than reported
+	private boolean deferErrors = false;
 	// > scan-state
 	private int start = 0;
 	private int current = 0;
@@ -45,77 +111,71 @@ class Scanner {
 	// < scan-state
 
 	Scanner(String source) {
-		this.source = source;
+		this(new StringReader(source));
+	}
+
+	/*
+	 * Scans source[from, to) in place, starting at the given line, as one
+	 * chunk of a larger source (see ParallelScanner). Token offsets index
+	 * straight into source. Errors are left in the TokenBuffer, which reports
+	 * them when the Parser gets to them, so chunks scanned side by side still
+	 * report them where a Scanner pulled by the Parser would.
+	 */
+	Scanner(char[] source, int from, int to, int line) {
+		this.window = source;
+		this.start = from;
+		this.current = from;
+		this.limit = to;
+		this.line = line;
+		this.deferErrors = true;
+	}
+
+	Scanner(Reader reader) {
+		this.reader = reader;
+	}
+
+	// Decodes UTF-8 straight out of the buffer, e.g. a mapped source file.
+	Scanner(ByteBuffer bytes) {
+		this.bytes = bytes;
+		this.decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
 	}
 
 	// > scan-tokens
-	List<Token> scanTokens() {
-		while (!isAtEnd()) {
+	/*
+	 * Scans just far enough to append the next token to the buffer, or EOF
+	 * at the end of the source. The TokenBuffer calls this as the Parser
+	 * reads ahead.
+	 */
+	void scanNext(TokenBuffer tokens) {
+		this.tokens = tokens;
+		scanned = false;
+		while (!scanned && !isAtEnd()) {
 			// We are at the beginning of the next lexeme.
 			start = current;
 			scanToken();
 		}
 
-		tokens.add(new Token(EOF, "", null, line));
-		return tokens;
+		if (!scanned)
+			tokens.add(EOF, windowOffset + current, 0, line);
 	}
 
 	// < scan-tokens
 	// > scan-token
 	private void scanToken() {
 		char c = advance();
-		switch (c) {
-			case '(':
-				addToken(LEFT_PAREN);
-				break;
-			case ')':
-				addToken(RIGHT_PAREN);
+		switch (c < 128 ? CLASSES[c] : OTHER) {
+			case SINGLE:
+				addToken(SINGLE_TOKENS[c]);
 				break;
-			case '{':
-				addToken(LEFT_BRACE);
-				break;
-			case '}':
-				addToken(RIGHT_BRACE);
-				break;
-			case ',':
-				addToken(COMMA);
-				break;
-			case '.':
-				// if (nextIsDigit()) {
-				// number();
-				// } else {
-				// addToken(DOT);
-				// }
-				addToken(DOT);
-				break;
-			case '-':
-				addToken(MINUS);
-				break;
-			case '+':
-				addToken(PLUS);
-				break;
-			case ';':
-				addToken(SEMICOLON);
-				break;
-			case '*':
-				addToken(STAR);
-				break; // [slash]
 			// > two-char-tokens
-			case '!':
-				addToken(match('=') ? BANG_EQUAL : BANG);
-				break;
-			case '=':
-				addToken(match('=') ? EQUAL_EQUAL : EQUAL);
-				break;
-			case '<':
-				addToken(match('=') ? LESS_EQUAL : LESS);
-				break;
-			case '>':
-				addToken(match('=') ? GREATER_EQUAL : GREATER);
+			case OPERATOR:
+				addToken(match('=') ? EQUAL_TOKENS[c] : SINGLE_TOKENS[c]);
 				break;
 			// < two-char-tokens
 			// > slash
-			case '/':
+			case SLASH_CHAR:
 				if (match('/')) {
 					// A comment goes until the end of the line.
 					while (peek() != '\n' && !isAtEnd())
@@ -128,43 +188,37 @@ class Scanner {
 				break;
 			// < slash
 			// > whitespace
-			case ' ':
-			case '\r':
-			case '\t':
+			case BLANK:
 				// Ignore whitespace.
 				break;
-			case '\n':
+			case NEWLINE:
 				line++;
 				break;
 			// < whitespace
 			// > string-start
 
-			case '"':
+			case DOUBLE_QUOTE:
 				// string(); // Multiline
 				singleLineString(); // singleLine
 				break;
-			case '\'':
+			case SINGLE_QUOTE:
 				// singleQuotedString(); // Multiline
 				singleLineSingleQuotedString(); // singleLine
 				break;
 			// < string-start
+			// > digit-start
+			case DIGIT:
+				number();
+				break;
+			// > identifier-start
+			case ALPHA:
+				identifier();
+				break;
+			// < identifier-start
+			// < digit-start
 			// > char-error
 			default:
-				/*
-				 * Scanning char-error < Scanning digit-start Lox.error(line,
-				 * "Unexpected character.");
-				 */
-				// > digit-start
-				if (isDigit(c)) {
-					number();
-					// > identifier-start
-				} else if (isAlpha(c)) {
-					identifier();
-					// < identifier-start
-				} else {
-					Lox.error(line, "Unexpected character.");
-				}
-				// < digit-start
+				error("Unexpected character.");
 				break;
 			// < char-error
 		}
@@ -173,7 +227,7 @@ class Scanner {
 	private boolean nextIsDigit() {
 		if (isAtEnd())
 			return false;
-		char next = source.charAt(current);
+		char next = window[current];
 		current++;
 		return Character.isDigit(next);
 	}
@@ -181,44 +235,42 @@ class Scanner {
 	private void singleLineSingleQuotedString() {
 		while (peek() != '\'' && !isAtEnd()) {
 			if (peek() == '\n') {
-				Lox.error(line, "Unterminated single-quoted string.");
+				error("Unterminated single-quoted string.");
 				return;
 			}
 			advance();
 		}
 
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated single-quoted string.");
+			error("Unterminated single-quoted string.");
 			return;
 		}
 
 		// Consume the closing single quote.
 		advance();
 
-		// Extract the string content.
-		String value = source.substring(start + 1, current - 1);
-		addToken(STRING, value);
+		// The quotes are trimmed off when the Parser asks for the value.
+		addToken(STRING);
 	}
 
 	private void singleLineString() {
 
 		while (peek() != '"' && !isAtEnd()) {
 			if (peek() == '\n')
-				Lox.error(line, "Unterminated string.");
+				error("Unterminated string.");
 			advance();
 		}
 
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated string.");
+			error("Unterminated string.");
 			return;
 		}
 
 		// The closing ".
 		advance();
 
-		// Trim the surrounding quotes.
-		String value = source.substring(start + 1, current - 1);
-		addToken(STRING, value);
+		// The quotes are trimmed off when the Parser asks for the value.
+		addToken(STRING);
 
 	}
 
@@ -227,8 +279,10 @@ class Scanner {
 		int nestLevel = 1;
 
 		while (true) {
+			// A comment makes no token, so its text need not stay in the window.
+			start = current;
 			if (isAtEnd()) {
-				Lox.error(line, "Unterminated multiline comment.");
+				error("Unterminated multiline comment.");
 				return;
 			}
 
@@ -263,34 +317,117 @@ class Scanner {
 		}
 
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated single-quoted string.");
+			error("Unterminated single-quoted string.");
 			return;
 		}
 
 		// Consume the closing single quote.
 		advance();
 
-		// Extract the string content.
-		String value = source.substring(start + 1, current - 1);
-		addToken(STRING, value);
+		// The quotes are trimmed off when the Parser asks for the value.
+		addToken(STRING);
 	}
 
 	// < scan-token
 	// > identifier
 	private void identifier() {
-		while (isAlphaNumeric(peek()))
-			advance();
+		// Runs straight over the window, refilling only at its end.
+		do {
+			while (current < limit && isAlphaNumeric(window[current]))
+				current++;
+		} while (current >= limit && fill(current));
 
 		/*
 		 * Scanning identifier < Scanning keyword-type addToken(IDENTIFIER);
 		 */
 		// > keyword-type
-		String text = source.substring(start, current);
-		TokenType type = keywords.get(text);
-		if (type == null)
-			type = IDENTIFIER;
-		addToken(type);
+		TokenType type = identifierType();
+		if (type != IDENTIFIER) {
+			addToken(type);
+			return;
+		}
 		// < keyword-type
+
+		// Intern the name straight from the window.
+		Symbol symbol = Symbol.of(window, start, current - start);
+		tokens.add(IDENTIFIER, windowOffset + start, current - start, line, symbol.id);
+		scanned = true;
+	}
+
+	/*
+	 * Keywords are recognized by walking a trie spelled out as nested
+	 * switches, comparing the lexeme in place, so no String is made.
+	 */
+	private TokenType identifierType() {
+		switch (window[start]) {
+			case 'a':
+				return checkKeyword(1, "nd", AND);
+			case 'b':
+				return checkKeyword(1, "reak", BREAK);
+			case 'c':
+				if (current - start > 1) {
+					switch (window[start + 1]) {
+						case 'l':
+							return checkKeyword(2, "ass", CLASS);
+						case 'o':
+							return checkKeyword(2, "ntinue", CONTINUE);
+					}
+				}
+				break;
+			case 'e':
+				return checkKeyword(1, "lse", ELSE);
+			case 'f':
+				if (current - start > 1) {
+					switch (window[start + 1]) {
+						case 'a':
+							return checkKeyword(2, "lse", FALSE);
+						case 'o':
+							return checkKeyword(2, "r", FOR);
+						case 'u':
+							return checkKeyword(2, "n", FUN);
+					}
+				}
+				break;
+			case 'i':
+				return checkKeyword(1, "f", IF);
+			case 'n':
+				return checkKeyword(1, "il", NIL);
+			case 'o':
+				return checkKeyword(1, "r", OR);
+			case 'p':
+				return checkKeyword(1, "rint", PRINT);
+			case 'r':
+				return checkKeyword(1, "eturn", RETURN);
+			case 's':
+				return checkKeyword(1, "uper", SUPER);
+			case 't':
+				if (current - start > 1) {
+					switch (window[start + 1]) {
+						case 'h':
+							return checkKeyword(2, "is", THIS);
+						case 'r':
+							return checkKeyword(2, "ue", TRUE);
+					}
+				}
+				break;
+			case 'v':
+				return checkKeyword(1, "ar", VAR);
+			case 'w':
+				return checkKeyword(1, "hile", WHILE);
+		}
+
+		return IDENTIFIER;
+	}
+
+	private TokenType checkKeyword(int offset, String rest, TokenType type) {
+		if (current - start != offset + rest.length())
+			return IDENTIFIER;
+
+		for (int i = 0; i < rest.length(); i++) {
+			if (window[start + offset + i] != rest.charAt(i))
+				return IDENTIFIER;
+		}
+		return type;
 	}
 
 	// < identifier
@@ -322,15 +459,82 @@ class Scanner {
 		}
 
 		if (peek() == 'e' && ((peekNext() == '+') || (peekNext() == '-'))) {
+			// Consume the "e" and the sign, then every exponent digit.
 			advance();
 			advance();
-			advance();
+			if (!isDigit(peek())) {
+				error("Unexpected Number.");
+				return;
+			}
+			while (isDigit(peek()))
+				advance();
 		} else if (peek() == 'e') {
-			Lox.error(line, "Unexpected Number.");
+			error("Unexpected Number.");
 			return;
 		}
 
-		addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+		// The value is parsed from the text when the Parser needs it.
+		addToken(NUMBER);
+	}
+
+	// Exact powers of ten; every one of them is representable in a double.
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/*
+	 * Parses the NUMBER token at the source offset in place. The digits are
+	 * accumulated into an integer mantissa and a decimal exponent. When the
+	 * mantissa fits in 53 bits and the exponent in the table above, one
+	 * multiplication or division by an exact power of ten is correctly
+	 * rounded. Anything else falls back to Double.parseDouble.
+	 */
+	double numberValue(int offset, int length) {
+		int i = offset - windowOffset;
+		int end = i + length;
+		long mantissa = 0;
+		int exponent = 0;
+		boolean exact = true;
+
+		for (; i < end && isDigit(window[i]); i++) {
+			if (mantissa < (1L << 53) / 10) {
+				mantissa = mantissa * 10 + (window[i] - '0');
+			} else {
+				exact = false;
+			}
+		}
+
+		if (i < end && window[i] == '.') {
+			for (i++; i < end && isDigit(window[i]); i++) {
+				if (mantissa < (1L << 53) / 10) {
+					mantissa = mantissa * 10 + (window[i] - '0');
+					exponent--;
+				} else {
+					exact = false;
+				}
+			}
+		}
+
+		if (i < end && window[i] == 'e') {
+			boolean negative = window[i + 1] == '-';
+			int value = 0;
+			for (i += 2; i < end; i++) {
+				if (value < 10000)
+					value = value * 10 + (window[i] - '0');
+			}
+			exponent += negative ? -value : value;
+		}
+
+		if (exact) {
+			if (mantissa == 0)
+				return 0.0;
+			if (exponent >= 0 && exponent < POWERS_OF_TEN.length)
+				return mantissa * POWERS_OF_TEN[exponent];
+			if (exponent < 0 && -exponent < POWERS_OF_TEN.length)
+				return mantissa / POWERS_OF_TEN[-exponent];
+		}
+
+		return Double.parseDouble(text(offset, length));
 	}
 
 	// < number
@@ -343,16 +547,15 @@ class Scanner {
 		}
 
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated string.");
+			error("Unterminated string.");
 			return;
 		}
 
 		// The closing ".
 		advance();
 
-		// Trim the surrounding quotes.
-		String value = source.substring(start + 1, current - 1);
-		addToken(STRING, value);
+		// The quotes are trimmed off when the Parser asks for the value.
+		addToken(STRING);
 	}
 
 	// < string
@@ -360,7 +563,7 @@ class Scanner {
 	private boolean match(char expected) {
 		if (isAtEnd())
 			return false;
-		if (source.charAt(current) != expected)
+		if (window[current] != expected)
 			return false;
 
 		current++;
@@ -372,25 +575,25 @@ class Scanner {
 	private char peek() {
 		if (isAtEnd())
 			return '\0';
-		return source.charAt(current);
+		return window[current];
 	}
 
 	// < peek
 	// > peek-next
 	private char peekNext() {
-		if (current + 1 >= source.length())
+		if (current + 1 >= limit && !fill(current + 1))
 			return '\0';
-		return source.charAt(current + 1);
+		return window[current + 1];
 	} // [peek-next]
 		// < peek-next
 		// > is-alpha
 
 	private boolean isAlpha(char c) {
-		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+		return c < 128 && CLASSES[c] == ALPHA;
 	}
 
 	private boolean isAlphaNumeric(char c) {
-		return isAlpha(c) || isDigit(c);
+		return c < 128 && (CLASSES[c] == ALPHA || CLASSES[c] == DIGIT);
 	}
 
 	// < is-alpha
@@ -402,22 +605,113 @@ class Scanner {
 		// > is-at-end
 
 	private boolean isAtEnd() {
-		return current >= source.length();
+		return current >= limit && !fill(current);
+	}
+
+	/*
+	 * Reads more of the source until window[index] is valid. Text before the
+	 * current lexeme is dropped to make room; the window only grows when a
+	 * single lexeme outgrows it. Returns false at the end of the source.
+	 */
+	private boolean fill(int index) {
+		// Nothing more to read, and a shared source must not be compacted.
+		if (reader == null && bytes == null)
+			return false;
+
+		while (index >= limit) {
+			// Keep room for at least a surrogate pair.
+			if (window.length - limit < 2) {
+				// Tokens the Parser has not released yet keep their text too.
+				int keep = start;
+				if (tokens != null)
+					keep = (int) Math.max(0, Math.min(keep,
+							(long) tokens.liveStart() - windowOffset));
+				if (keep > 0) {
+					System.arraycopy(window, keep, window, 0, limit - keep);
+					windowOffset += keep;
+					index -= keep;
+					current -= keep;
+					limit -= keep;
+					start -= keep;
+				}
+				if (window.length - limit < 2)
+					window = Arrays.copyOf(window, window.length * 2);
+			}
+
+			int count = read(window, limit, window.length - limit);
+			if (count < 0)
+				return false;
+			limit += count;
+		}
+
+		return true;
+	}
+
+	private int read(char[] into, int offset, int length) {
+		try {
+			if (reader != null) {
+				int count = reader.read(into, offset, length);
+				if (count < 0) {
+					reader.close();
+					reader = null;
+				}
+				return count;
+			}
+
+			if (bytes != null) {
+				CharBuffer out = CharBuffer.wrap(into, offset, length);
+				decoder.decode(bytes, out, false);
+				if (out.position() == offset) {
+					// Nothing complete was left; flush any trailing partial sequence.
+					decoder.decode(bytes, out, true);
+					decoder.flush(out);
+					bytes = null;
+				}
+				int count = out.position() - offset;
+				return count == 0 ? -1 : count;
+			}
+		} catch (IOException error) {
+			error("Could not read source: " + error.getMessage());
+			reader = null;
+		}
+
+		return -1;
+	}
+
+	// A Scanner over a copy of source text [from, to), only for reading it.
+	Scanner copy(int from, int to) {
+		char[] text = Arrays.copyOfRange(window, from - windowOffset, to - windowOffset);
+		Scanner copy = new Scanner(text, 0, text.length, line);
+		copy.windowOffset = from;
+		return copy;
+	}
+
+	private void error(String message) {
+		if (!deferErrors) {
+			Lox.error(line, message);
+			return;
+		}
+
+		int line = this.line;
+		tokens.deferError(() -> Lox.error(line, message));
+	}
+
+	// Text of a token that is still in the window, by source offset.
+	String text(int offset, int length) {
+		return new String(window, offset - windowOffset, length);
 	}
 
 	// < is-at-end
 	// > advance-and-add-token
 	private char advance() {
-		return source.charAt(current++);
+		if (isAtEnd())
+			return '\0';
+		return window[current++];
 	}
 
 	private void addToken(TokenType type) {
-		addToken(type, null);
-	}
-
-	private void addToken(TokenType type, Object literal) {
-		String text = source.substring(start, current);
-		tokens.add(new Token(type, text, literal, line));
+		tokens.add(type, windowOffset + start, current - start, line);
+		scanned = true;
 	}
 	// < advance-and-add-token
 }
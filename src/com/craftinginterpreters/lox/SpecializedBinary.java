@@ -0,0 +1,30 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * A binary operation whose operands TypeInference has proved are both
+ * numbers, or both strings. The Interpreter evaluates it without the
+ * checks binary() makes, and gives it an operand that is arithmetic on
+ * numbers as an unboxed double.
+ *
+ * Only a call can run code that assigns a variable somewhere else, and
+ * TypeInference forgets what it knew of globals at each call, and does not
+ * track a local that a nested function assigns, so no program is known to
+ * give one an operand of another kind. Should one ever do so, the operation
+ * falls back to binary() with the values it has, and is counted in missed,
+ * which -Dlox.stats=true reports and test/run.sh expects to stay 0.
+ */
+class SpecializedBinary extends Expr.Binary {
+  static int missed = 0;
+
+  // both operands are strings rather than numbers
+  final boolean strings;
+  // "+", "-" or "*" on numbers
+  final boolean arithmetic;
+
+  SpecializedBinary(Expr left, Token operator, Expr right, boolean strings) {
+    super(left, operator, right);
+    this.strings = strings;
+    this.arithmetic = !strings && (operator.type == TokenType.PLUS ||
+        operator.type == TokenType.MINUS || operator.type == TokenType.STAR);
+  }
+}
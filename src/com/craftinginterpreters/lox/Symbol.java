@@ -0,0 +1,144 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * An interned identifier. The Scanner looks every identifier up here as it
+ * is scanned, so each distinct name becomes exactly one Symbol with a dense
+ * integer id. The Resolver, environments, instances and classes key on
+ * Symbols, which hash by id and compare by identity, instead of hashing
+ * the name's characters again at every lookup.
+ *
+ * Symbols are never removed; a program only has so many distinct names.
+ */
+final class Symbol {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // open-addressed by the hash of the name; power-of-two sized
+  private static volatile Symbol[] table = new Symbol[INITIAL_CAPACITY];
+  // by id
+  private static Symbol[] byId = new Symbol[INITIAL_CAPACITY];
+  private static int count = 0;
+
+  // Names the interpreter itself refers to.
+  static final Symbol THIS = of("this");
+  static final Symbol SUPER = of("super");
+  static final Symbol INIT = of("init");
+
+  final String name;
+  final int id;
+  private final int hash;
+
+  private Symbol(String name, int id, int hash) {
+    this.name = name;
+    this.id = id;
+    this.hash = hash;
+  }
+
+  static Symbol of(String name) {
+    return of(name.toCharArray(), 0, name.length());
+  }
+
+  /*
+   * Looks up the name spelled by chars[start, start + length), creating its
+   * Symbol the first time. Finding an existing one allocates nothing and
+   * takes no lock; a Symbol's fields are final, so a reader that sees one
+   * in the table sees it whole, and a reader that misses a new one just
+   * retries under the lock.
+   */
+  static Symbol of(char[] chars, int start, int length) {
+    int hash = hash(chars, start, length);
+    Symbol symbol = find(table, hash, chars, start, length);
+    if (symbol != null)
+      return symbol;
+    return add(hash, chars, start, length);
+  }
+
+  private static Symbol find(Symbol[] table, int hash, char[] chars, int start,
+      int length) {
+    int mask = table.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      Symbol symbol = table[slot];
+      if (symbol == null)
+        return null;
+      if (symbol.hash == hash && symbol.matches(chars, start, length))
+        return symbol;
+    }
+  }
+
+  private static synchronized Symbol add(int hash, char[] chars, int start,
+      int length) {
+    Symbol existing = find(table, hash, chars, start, length);
+    if (existing != null)
+      return existing;
+
+    int mask = table.length - 1;
+    int slot = hash & mask;
+    while (table[slot] != null)
+      slot = (slot + 1) & mask;
+
+    Symbol symbol = new Symbol(new String(chars, start, length), count, hash);
+    if (count == byId.length)
+      byId = Arrays.copyOf(byId, count * 2);
+    byId[count++] = symbol;
+    table[slot] = symbol;
+    // Keep the table at most half full.
+    if (count * 2 > table.length)
+      rehash();
+    return symbol;
+  }
+
+  static synchronized Symbol get(int id) {
+    return byId[id];
+  }
+
+  static synchronized int count() {
+    return count;
+  }
+
+  private boolean matches(char[] chars, int start, int length) {
+    if (name.length() != length)
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (name.charAt(i) != chars[start + i])
+        return false;
+    }
+    return true;
+  }
+
+  private static int hash(char[] chars, int start, int length) {
+    // FNV-1a
+    int hash = 0x811c9dc5;
+    for (int i = start; i < start + length; i++) {
+      hash ^= chars[i];
+      hash *= 0x01000193;
+    }
+    return hash;
+  }
+
+  // Builds the bigger table completely before readers can see it.
+  private static void rehash() {
+    Symbol[] old = table;
+    Symbol[] grown = new Symbol[old.length * 2];
+    int mask = grown.length - 1;
+    for (Symbol symbol : old) {
+      if (symbol == null)
+        continue;
+      int slot = symbol.hash & mask;
+      while (grown[slot] != null)
+        slot = (slot + 1) & mask;
+      grown[slot] = symbol;
+    }
+    table = grown;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -6,12 +6,33 @@ class Token {
   final String lexeme;
   final Object literal;
   final int line; // [location]
+  // the interned name of an identifier, 'this' or 'super'; otherwise null
+  final Symbol symbol;
 
   Token(TokenType type, String lexeme, Object literal, int line) {
+    this(type, lexeme, literal, line, symbolFor(type, lexeme));
+  }
+
+  Token(TokenType type, String lexeme, Object literal, int line,
+      Symbol symbol) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.symbol = symbol;
+  }
+
+  private static Symbol symbolFor(TokenType type, String lexeme) {
+    switch (type) {
+      case IDENTIFIER:
+        return Symbol.of(lexeme);
+      case THIS:
+        return Symbol.THIS;
+      case SUPER:
+        return Symbol.SUPER;
+      default:
+        return null;
+    }
   }
 
   public String toString() {
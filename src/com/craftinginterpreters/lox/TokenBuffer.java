@@ -0,0 +1,329 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/*
+ * Tokens packed into parallel arrays instead of one Token object each: a
+ * token is its type, where its text starts, how long it is and its line.
+ * The text itself stays in the source and is only turned into a String
+ * when the Parser materializes a Token for the AST. Literal values are
+ * likewise computed from the text on demand. Identifiers carry the id of
+ * the Symbol the Scanner interned them as, and reuse its name as lexeme.
+ *
+ * Tokens are addressed by absolute index. A buffer fed by a Scanner fills
+ * itself as the Parser reads ahead, and the Parser releases tokens it no
+ * longer needs so both the arrays and the Scanner's text window stay small.
+ *
+ * Such a buffer's Scanner reports an error as it finds it, which is when
+ * the Parser first asks for the token after it, so scan errors come out
+ * in source order among the parse errors. A buffer scanned ahead of the
+ * Parser (see ParallelScanner) holds its scan errors and reports each when
+ * the Parser first asks for that same token.
+ */
+class TokenBuffer {
+  private static final int INITIAL_CAPACITY = 256;
+
+  // Lexemes of tokens whose text is always the same, by type ordinal.
+  private static final String[] FIXED_LEXEMES = new String[TokenType.values().length];
+  private static final TokenType[] TYPES = TokenType.values();
+
+  static {
+    String[][] punctuation = {
+        { "LEFT_PAREN", "(" }, { "RIGHT_PAREN", ")" },
+        { "LEFT_BRACE", "{" }, { "RIGHT_BRACE", "}" },
+        { "COMMA", "," }, { "DOT", "." }, { "MINUS", "-" }, { "PLUS", "+" },
+        { "SEMICOLON", ";" }, { "SLASH", "/" }, { "STAR", "*" },
+        { "BANG", "!" }, { "BANG_EQUAL", "!=" }, { "EQUAL", "=" },
+        { "EQUAL_EQUAL", "==" }, { "GREATER", ">" }, { "GREATER_EQUAL", ">=" },
+        { "LESS", "<" }, { "LESS_EQUAL", "<=" }, { "EOF", "" },
+    };
+    for (String[] entry : punctuation) {
+      FIXED_LEXEMES[TokenType.valueOf(entry[0]).ordinal()] = entry[1];
+    }
+
+    TokenType[] keywords = { AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
+        PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE, BREAK, CONTINUE };
+    for (TokenType keyword : keywords) {
+      FIXED_LEXEMES[keyword.ordinal()] = keyword.name().toLowerCase();
+    }
+  }
+
+  // The text every token of this type has, or null if it varies.
+  static String fixedLexeme(TokenType type) {
+    return FIXED_LEXEMES[type.ordinal()];
+  }
+
+  private int[] types;
+  private int[] starts;
+  private int[] lengths;
+  private int[] lines;
+  // Symbol id of an IDENTIFIER, unused for other tokens
+  private int[] symbols;
+
+  // absolute index of the token in slot 0
+  private int base = 0;
+  // number of slots in use
+  private int count = 0;
+  // tokens before this index may be dropped
+  private int released = 0;
+  private boolean complete = false;
+
+  // scan errors not yet reported, with the index of the token each precedes
+  private final ArrayDeque<ScanError> errors = new ArrayDeque<>();
+  private int nextError = Integer.MAX_VALUE;
+
+  // fills this buffer and holds the text of its tokens
+  private final Scanner scanner;
+
+  TokenBuffer(Scanner scanner) {
+    this(scanner, INITIAL_CAPACITY);
+  }
+
+  TokenBuffer(Scanner scanner, int capacity) {
+    this.scanner = scanner;
+    capacity = Math.max(capacity, 1);
+    types = new int[capacity];
+    starts = new int[capacity];
+    lengths = new int[capacity];
+    lines = new int[capacity];
+    symbols = new int[capacity];
+  }
+
+  // the number of tokens held, the EOF included
+  int size() {
+    return count;
+  }
+
+  void add(TokenType type, int start, int length, int line) {
+    add(type, start, length, line, -1);
+  }
+
+  void add(TokenType type, int start, int length, int line, int symbol) {
+    if (count == types.length)
+      makeRoom();
+
+    types[count] = type.ordinal();
+    starts[count] = start;
+    lengths[count] = length;
+    lines[count] = line;
+    symbols[count] = symbol;
+    count++;
+    if (type == EOF)
+      complete = true;
+  }
+
+  // Holds a scan error found before the next token is added.
+  void deferError(Runnable report) {
+    deferError(base + count, report);
+  }
+
+  private void deferError(int index, Runnable report) {
+    if (errors.isEmpty())
+      nextError = index;
+    errors.add(new ScanError(index, report));
+  }
+
+  // Reports the held errors found before the token at index.
+  private void reportErrors(int index) {
+    while (!errors.isEmpty() && errors.peek().index <= index)
+      errors.poll().report.run();
+    nextError = errors.isEmpty() ? Integer.MAX_VALUE : errors.peek().index;
+  }
+
+  // Scans the whole source into this buffer.
+  void scanAll() {
+    while (!complete)
+      scanner.scanNext(this);
+  }
+
+  /*
+   * Appends the tokens of a fully scanned chunk that continues where this
+   * buffer ends; the chunk's tokens take the place of our EOF. Both must
+   * read their text from the same source.
+   */
+  void append(TokenBuffer chunk) {
+    if (complete)
+      count--;
+    for (ScanError error : chunk.errors)
+      deferError(base + count + error.index, error.report);
+
+    int needed = count + chunk.count;
+    if (needed > types.length) {
+      int capacity = Math.max(needed, types.length * 2);
+      types = Arrays.copyOf(types, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      symbols = Arrays.copyOf(symbols, capacity);
+    }
+
+    System.arraycopy(chunk.types, 0, types, count, chunk.count);
+    System.arraycopy(chunk.starts, 0, starts, count, chunk.count);
+    System.arraycopy(chunk.lengths, 0, lengths, count, chunk.count);
+    System.arraycopy(chunk.lines, 0, lines, count, chunk.count);
+    System.arraycopy(chunk.symbols, 0, symbols, count, chunk.count);
+    count = needed;
+    complete = chunk.complete;
+  }
+
+  /*
+   * A standalone copy of tokens [from, to) followed by an EOF, holding its
+   * own copy of their text, for parsing at some later time.
+   */
+  TokenBuffer slice(int from, int to) {
+    // Scan as far as needed before the arrays are read.
+    int last = slot(to);
+    int first = slot(from);
+    int length = last - first;
+    int textStart = starts[first];
+    int textEnd = length == 0 ? textStart : starts[last - 1] + lengths[last - 1];
+
+    TokenBuffer slice = new TokenBuffer(scanner.copy(textStart, textEnd), length + 1);
+    System.arraycopy(types, first, slice.types, 0, length);
+    System.arraycopy(starts, first, slice.starts, 0, length);
+    System.arraycopy(lengths, first, slice.lengths, 0, length);
+    System.arraycopy(lines, first, slice.lines, 0, length);
+    System.arraycopy(symbols, first, slice.symbols, 0, length);
+    slice.count = length;
+    slice.add(EOF, textEnd, 0, lines[last]);
+    return slice;
+  }
+
+  // Drop released tokens, or grow if they are all still needed.
+  private void makeRoom() {
+    int drop = released - base;
+    if (drop > count / 2) {
+      int keep = count - drop;
+      System.arraycopy(types, drop, types, 0, keep);
+      System.arraycopy(starts, drop, starts, 0, keep);
+      System.arraycopy(lengths, drop, lengths, 0, keep);
+      System.arraycopy(lines, drop, lines, 0, keep);
+      System.arraycopy(symbols, drop, symbols, 0, keep);
+      base += drop;
+      count = keep;
+      return;
+    }
+
+    int capacity = types.length * 2;
+    types = Arrays.copyOf(types, capacity);
+    starts = Arrays.copyOf(starts, capacity);
+    lengths = Arrays.copyOf(lengths, capacity);
+    lines = Arrays.copyOf(lines, capacity);
+    symbols = Arrays.copyOf(symbols, capacity);
+  }
+
+  // The Parser promises not to look at tokens before index again.
+  void release(int index) {
+    if (index > released)
+      released = index;
+  }
+
+  /*
+   * Source offset of the oldest token that may still be materialized. The
+   * Scanner keeps its text from there on.
+   */
+  int liveStart() {
+    int first = Math.max(released, base);
+    if (first >= base + count)
+      return Integer.MAX_VALUE;
+    return starts[first - base];
+  }
+
+  // Makes sure token index exists, scanning more of the source if needed.
+  private int slot(int index) {
+    if (index >= nextError)
+      reportErrors(index);
+    int slot = index - base;
+    if (slot < count)
+      return slot;
+
+    while (index >= base + count && !complete) {
+      scanner.scanNext(this);
+    }
+
+    if (index >= base + count) {
+      // Past the end; everything reads as the final EOF.
+      return count - 1;
+    }
+    return index - base;
+  }
+
+  // slot() may scan and reallocate the arrays, so it runs before they are read.
+  TokenType type(int index) {
+    int slot = slot(index);
+    return TYPES[types[slot]];
+  }
+
+  boolean check(int index, TokenType type) {
+    int slot = slot(index);
+    return types[slot] == type.ordinal();
+  }
+
+  int line(int index) {
+    int slot = slot(index);
+    return lines[slot];
+  }
+
+  String lexeme(int index) {
+    int slot = slot(index);
+    String fixed = FIXED_LEXEMES[types[slot]];
+    if (fixed != null)
+      return fixed;
+    if (types[slot] == IDENTIFIER.ordinal())
+      return Symbol.get(symbols[slot]).name;
+    return text(starts[slot], lengths[slot]);
+  }
+
+  // The interned name of an identifier, 'this' or 'super'.
+  Symbol symbol(int index) {
+    int slot = slot(index);
+    switch (TYPES[types[slot]]) {
+      case IDENTIFIER:
+        return Symbol.get(symbols[slot]);
+      case THIS:
+        return Symbol.THIS;
+      case SUPER:
+        return Symbol.SUPER;
+      default:
+        return null;
+    }
+  }
+
+  // The value of a NUMBER or STRING token, worked out from its text.
+  Object literal(int index) {
+    int slot = slot(index);
+    switch (TYPES[types[slot]]) {
+      case NUMBER:
+        return scanner.numberValue(starts[slot], lengths[slot]);
+      case STRING:
+        // Trim the surrounding quotes.
+        return Interner.intern(text(starts[slot] + 1, lengths[slot] - 2));
+      default:
+        return null;
+    }
+  }
+
+  // Builds the Token object the AST keeps for this index.
+  Token token(int index) {
+    TokenType type = type(index);
+    return new Token(type, lexeme(index), literal(index), line(index),
+        symbol(index));
+  }
+
+  private String text(int start, int length) {
+    return scanner.text(start, length);
+  }
+
+  private static class ScanError {
+    final int index;
+    final Runnable report;
+
+    ScanError(int index, Runnable report) {
+      this.index = index;
+      this.report = report;
+    }
+  }
+}
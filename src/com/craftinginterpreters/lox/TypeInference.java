@@ -0,0 +1,407 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/*
+ * Works out which values each expression can have, following the program
+ * in the order it runs, and turns each binary operation whose operands are
+ * certainly two numbers, or two strings where that matters, into a
+ * SpecializedBinary.
+ *
+ * A type here is a set of the kinds below. What a local holds is tracked
+ * from its declaration through each assignment; the two sides of an if or
+ * a logical operator are joined afterwards, and a loop is walked until the
+ * types at its top stop changing. Globals are tracked the same way, but
+ * only until a call, which could assign any of them. A function's body is
+ * walked from knowing nothing, about its parameters, the locals around it
+ * or globals. A local that a nested function assigns is not tracked at
+ * all.
+ *
+ * A break or continue sets a flag that the statements after it test, in
+ * whichever block runs next, so control flow in a program that has one is
+ * not what the walk follows. Such a program is left alone, and so is one
+ * that runs while such a flag may be set, or code from an earlier program
+ * may set one (see Interpreter.mayBreak()). So is a program with a
+ * function whose body has not been parsed yet.
+ */
+class TypeInference extends Pass {
+  static int binaries = 0;
+  static int specialized = 0;
+
+  private static final int NUMBER = 1;
+  private static final int STRING = 2;
+  private static final int BOOLEAN = 4;
+  private static final int NIL = 8;
+  // instances, classes and functions
+  private static final int OTHER = 16;
+  private static final int ANY = 31;
+
+  private Set<Token> untracked;
+  private Flow flow = new Flow();
+  // the type of the expression just walked
+  private int type = ANY;
+  // how many loops are being walked only to find their types
+  private int searching = 0;
+
+  @Override
+  List<Stmt> run(List<Stmt> statements) {
+    Unstructured finder = new Unstructured();
+    finder.run(statements);
+    if (finder.found || finder.unparsed)
+      return statements;
+
+    untracked = assignedByFunctions(statements);
+    return super.run(statements);
+  }
+
+  @Override
+  Stmt.Function function(Stmt.Function stmt) {
+    Flow outer = flow;
+    flow = new Flow();
+    Stmt.Function rewritten = super.function(stmt);
+    flow = outer;
+    return rewritten;
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    Stmt rewritten = super.visitClassStmt(stmt);
+    define(stmt.name, OTHER);
+    return rewritten;
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    define(stmt.name, OTHER);
+    return super.visitFunctionStmt(stmt);
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = expression(stmt.condition);
+    Flow skipped = flow.copy();
+    Stmt thenBranch = statement(stmt.thenBranch);
+    Flow taken = flow;
+    flow = skipped;
+    Stmt elseBranch = stmt.elseBranch == null ? null
+        : statement(stmt.elseBranch);
+    flow = flow.join(taken);
+
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+        elseBranch == stmt.elseBranch)
+      return stmt;
+    return new Stmt.If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Stmt rewritten = super.visitVarStmt(stmt);
+    define(stmt.name, stmt.initializer == null ? NIL : type);
+    return rewritten;
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    // What the loop's variables hold at its top, on any iteration.
+    Flow top = flow;
+    searching++;
+    while (true) {
+      flow = top.copy();
+      expression(stmt.condition);
+      statement(stmt.body);
+      Flow next = top.join(flow);
+      if (next.equals(top))
+        break;
+      top = next;
+    }
+    searching--;
+
+    flow = top;
+    Expr condition = expression(stmt.condition);
+    Flow exit = flow.copy();
+    Stmt body = statement(stmt.body);
+    flow = exit;
+
+    if (condition == stmt.condition && body == stmt.body)
+      return stmt;
+    return new Stmt.While(condition, body);
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr rewritten = super.visitAssignExpr(expr);
+    Object key = key(expr, expr.name);
+    if (key != null)
+      flow.put(key, type);
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = expression(expr.left);
+    int leftType = type;
+    Expr right = expression(expr.right);
+    int rightType = type;
+
+    TokenType operator = expr.operator.type;
+    boolean numbers = leftType == NUMBER && rightType == NUMBER;
+    boolean strings = leftType == STRING && rightType == STRING &&
+        (operator == TokenType.PLUS || operator == TokenType.EQUAL_EQUAL ||
+        operator == TokenType.BANG_EQUAL);
+    type = resultType(operator, leftType, rightType);
+
+    if (searching == 0) {
+      binaries++;
+      if (numbers || strings)
+        specialized++;
+    }
+    if (numbers || strings)
+      return new SpecializedBinary(left, expr.operator, right, strings);
+    if (left == expr.left && right == expr.right)
+      return expr;
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr rewritten = super.visitCallExpr(expr);
+    flow.forgetGlobals();
+    type = ANY;
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    Expr rewritten = super.visitGetExpr(expr);
+    type = ANY;
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    type = typeOf(expr.value);
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = expression(expr.left);
+    int leftType = type;
+    Flow skipped = flow.copy();
+    Expr right = expression(expr.right);
+    flow = flow.join(skipped);
+    // It gives whichever operand decided it.
+    type |= leftType;
+
+    if (left == expr.left && right == expr.right)
+      return expr;
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    type = ANY;
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    type = OTHER;
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr rewritten = super.visitUnaryExpr(expr);
+    type = expr.operator.type == TokenType.BANG ? BOOLEAN : NUMBER;
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    Object key = key(expr, expr.name);
+    type = key == null ? ANY : flow.get(key);
+    return expr;
+  }
+
+  private void define(Token name, int type) {
+    if (atTopLevel()) {
+      flow.put(name.symbol, type);
+    } else if (!untracked.contains(name)) {
+      flow.put(name, type);
+    }
+  }
+
+  // What the flow knows a variable by, or null if it is not tracked here.
+  private Object key(Expr expr, Token name) {
+    if (expr.depth < 0)
+      return name.symbol;
+    Token declaration = declaration(expr, name);
+    if (declaration == null || untracked.contains(declaration))
+      return null;
+    return declaration;
+  }
+
+  private static int typeOf(Object value) {
+    if (value instanceof Double)
+      return NUMBER;
+    if (value instanceof String)
+      return STRING;
+    if (value instanceof Boolean)
+      return BOOLEAN;
+    if (value == null)
+      return NIL;
+    return OTHER;
+  }
+
+  // What Interpreter.binary() can give for operands of these types.
+  private static int resultType(TokenType operator, int left, int right) {
+    boolean numbersOrStrings = (left & ~(NUMBER | STRING)) == 0 &&
+        (right & ~(NUMBER | STRING)) == 0;
+    switch (operator) {
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        return left == NUMBER && right == NUMBER ? BOOLEAN : BOOLEAN | NIL;
+      case BANG_EQUAL:
+      case EQUAL_EQUAL:
+        return BOOLEAN;
+      case MINUS:
+        return NUMBER;
+      case PLUS:
+        if (left == NUMBER && right == NUMBER)
+          return NUMBER;
+        if (left == STRING || right == STRING)
+          return numbersOrStrings ? STRING : STRING | NIL;
+        return numbersOrStrings ? NUMBER | STRING : NUMBER | STRING | NIL;
+      case SLASH:
+        // Division by zero gives a message.
+        return NUMBER | STRING;
+      case STAR:
+        if (left == NUMBER && right == NUMBER)
+          return NUMBER;
+        return NUMBER | STRING | NIL;
+      default:
+        return ANY;
+    }
+  }
+
+  /*
+   * The types of the variables being tracked at one point. A variable that
+   * is not here could hold anything. Locals are keyed by the name they were
+   * declared with, and globals by their Symbol.
+   */
+  private static class Flow {
+    // Each if and loop copies the flow, and a long script can declare a
+    // great many globals, so only the ones assigned last are kept.
+    private static final int MAX_GLOBALS = 64;
+
+    private final Map<Token, Integer> locals;
+    private final Map<Symbol, Integer> globals;
+
+    Flow() {
+      this(new HashMap<>(), globals());
+    }
+
+    private Flow(Map<Token, Integer> locals, Map<Symbol, Integer> globals) {
+      this.locals = locals;
+      this.globals = globals;
+    }
+
+    int get(Object key) {
+      Integer type = key instanceof Symbol ? globals.get(key)
+          : locals.get(key);
+      return type == null ? ANY : type;
+    }
+
+    void put(Object key, int type) {
+      if (key instanceof Symbol) {
+        globals.remove(key);
+        globals.put((Symbol) key, type);
+      } else {
+        locals.put((Token) key, type);
+      }
+    }
+
+    void forgetGlobals() {
+      globals.clear();
+    }
+
+    Flow copy() {
+      Map<Symbol, Integer> globals = globals();
+      globals.putAll(this.globals);
+      return new Flow(new HashMap<>(locals), globals);
+    }
+
+    // What either could hold.
+    Flow join(Flow other) {
+      return new Flow(join(locals, other.locals, new HashMap<>()),
+          join(globals, other.globals, globals()));
+    }
+
+    private static Map<Symbol, Integer> globals() {
+      return new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<Symbol, Integer> eldest) {
+          return size() > MAX_GLOBALS;
+        }
+      };
+    }
+
+    private static <K> Map<K, Integer> join(Map<K, Integer> a,
+        Map<K, Integer> b, Map<K, Integer> result) {
+      for (Map.Entry<K, Integer> entry : a.entrySet()) {
+        Integer other = b.get(entry.getKey());
+        if (other != null)
+          result.put(entry.getKey(), entry.getValue() | other);
+      }
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof Flow))
+        return false;
+      Flow other = (Flow) object;
+      return locals.equals(other.locals) && globals.equals(other.globals);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(locals, globals);
+    }
+  }
+
+  // Finds a break or continue, or a function not parsed yet.
+  // Whether a break or continue can set its flag while a program runs.
+  static class Unstructured extends Pass {
+    boolean found = Lox.interpreter().mayBreak();
+    boolean unparsed = false;
+
+    @Override
+    Stmt.Function function(Stmt.Function stmt) {
+      if (stmt.body instanceof LazyBody)
+        unparsed = true;
+      return super.function(stmt);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+      found = true;
+      return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+      found = true;
+      return stmt;
+    }
+  }
+}
@@ -134,6 +134,15 @@ public class GenerateAst {
     // < nested-classes
     // > base-accept-method
 
+    // Where the Resolver leaves the depth of a variable.
+    if (baseName.equals("Expr")) {
+      writer.println();
+      writer.println("  // For a variable, assignment, this or super: how many scopes out the");
+      writer.println("  // Resolver found the variable, or -1 for a global. It is kept in the");
+      writer.println("  // node, so it goes away with the tree.");
+      writer.println("  int depth = -1;");
+    }
+
     // The base accept() method.
     writer.println();
     writer.println("  abstract <R> R accept(Visitor<R> visitor);");
@@ -0,0 +1,343 @@
+#!/bin/bash
+# Behaviour checks for jlox. Run from anywhere: test/run.sh [program ...]
+#
+# Builds src/ into a scratch directory, then runs each test/lox/*.lox (or
+# just the ones named) as jlox does by default, and compares what it
+# prints, what it reports and its exit code with the .out file beside it.
+# Each program is then run again under every other front end and every
+# optimizer pipeline, which must give exactly what the default run did.
+#
+# With UPDATE=1 the .out files are written from the default runs instead,
+# to be read over before they are committed.
+
+set -u
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+mkdir "$work/classes"
+javac -encoding UTF-8 -d "$work/classes" $(find "$root/src" -name '*.java') ||
+  exit 1
+
+# the options that pick another way to scan, parse or run a script
+FRONT_ENDS=(
+  -Dlox.scan.parallel=true
+  -Dlox.parse.lazy=true
+  -Dlox.ast.flat=true
+  -Dlox.run.stream=true
+  -Dlox.cache=true
+)
+# -Dlox.optimize pipelines: each pass alone, then the defaults
+PIPELINES=(propagate inline fold licm dce escape types counted memoize
+  true true,memoize)
+
+failures=0
+
+# Runs jlox with the -D options and arguments given, and prints what it
+# wrote to stdout, then what it wrote to stderr, then its exit code, which
+# is 124 if it had to be stopped.
+lox() {
+  local options=()
+  while [ $# -gt 0 ] && [ "${1#-D}" != "$1" ]; do
+    options+=("$1")
+    shift
+  done
+  timeout 60 java "${options[@]}" -cp "$work/classes" \
+    com.craftinginterpreters.lox.Lox "$@" >"$work/stdout" 2>"$work/stderr"
+  local status=$?
+  cat "$work/stdout" "$work/stderr"
+  echo "exit $status"
+}
+
+# Counts a failure, and shows how it went wrong, unless what a check got
+# is what it expected.
+same() {
+  local check=$1 expected=$2 actual=$3
+  if [ "$expected" != "$actual" ]; then
+    echo "FAIL $check"
+    diff <(echo "$expected") <(echo "$actual") | head -20
+    failures=$((failures + 1))
+  fi
+}
+
+if [ $# -gt 0 ]; then
+  programs=()
+  for name in "$@"; do
+    programs+=("$root/test/lox/$name.lox")
+  done
+else
+  programs=("$root"/test/lox/*.lox)
+fi
+
+for program in "${programs[@]}"; do
+  name=$(basename "$program" .lox)
+  # Each runs from a copy, beside which the cache can keep its file.
+  script="$work/$name.lox"
+  cp "$program" "$script"
+
+  expected=$(lox "$script" </dev/null)
+  if [ -n "${UPDATE:-}" ]; then
+    echo "$expected" >"${program%.lox}.out"
+  fi
+  same "$name" "$(cat "${program%.lox}.out")" "$expected"
+
+  for option in "${FRONT_ENDS[@]}"; do
+    same "$name $option" "$expected" "$(lox "$option" "$script" </dev/null)"
+    same "$name $option -Dlox.optimize=true" "$expected" \
+      "$(lox "$option" -Dlox.optimize=true "$script" </dev/null)"
+  done
+  # The cached runs above stored the script and then loaded it.
+  rm -f "$work/$name.loxc"
+
+  for pipeline in "${PIPELINES[@]}"; do
+    same "$name -Dlox.optimize=$pipeline" "$expected" \
+      "$(lox -Dlox.optimize="$pipeline" "$script" </dev/null)"
+  done
+done
+
+# Checks that need more than a program run on its own.
+
+# When stdout is closed early, a failed write ends the run with an error
+# rather than a hang, with either sink.
+echo 'for (var i = 0; i < 200000; i = i + 1) print i;' >"$work/output.lox"
+for option in -Dlox.output.async=false -Dlox.output.async=true; do
+  same "write failure $option" "0
+Could not write output: Broken pipe
+exit 70" "$(timeout 60 java "$option" -cp "$work/classes" \
+    com.craftinginterpreters.lox.Lox "$work/output.lox" 2>"$work/stderr" |
+    head -1
+  status=${PIPESTATUS[0]}
+  cat "$work/stderr"
+  echo "exit $status")"
+done
+
+# Whatever was printed is flushed however the run ends: with an error
+# thrown out of the interpreter, or with the JVM stopped by a signal. A
+# final flush that fails is reported like any other failed write.
+echo 'print "before"; fun r(n) { return r(n + 1); } r(0);' >"$work/deep.lox"
+echo 'print "start"; while (true) {}' >"$work/forever.lox"
+echo 'print "small";' >"$work/small.lox"
+for option in -Dlox.output.async=false -Dlox.output.async=true; do
+  same "thrown error $option" "before" \
+    "$(lox "$option" "$work/deep.lox" | head -1)"
+  same "stopped $option" "start" "$(timeout 5 java "$option" \
+    -cp "$work/classes" com.craftinginterpreters.lox.Lox "$work/forever.lox")"
+  same "full disk $option" "Could not write output: No space left on device
+exit 70" "$(java "$option" -cp "$work/classes" \
+    com.craftinginterpreters.lox.Lox "$work/small.lox" 2>&1 >/dev/full
+    echo "exit $?")"
+done
+
+# The stdin natives share one reader, so they take turns with the input,
+# and each gives nil once it is exhausted.
+cat >"$work/stdin.lox" <<'EOF'
+print input();
+print readLine();
+var next = lines();
+print next();
+print input();
+print readAll();
+print readLine();
+print next();
+print input();
+print readAll() == "";
+EOF
+same "stdin natives" "one
+two
+three
+four
+five
+six
+
+nil
+nil
+nil
+true
+exit 0" "$(printf 'one\ntwo\nthree\nfour\nfive\nsix\n' |
+  lox "$work/stdin.lox")"
+# What was printed before a read is out before the read waits: the prompt
+# is read back first, and only then is the answer given.
+echo 'print "Name?"; print "Hello, " + readLine() + ".";' >"$work/prompt.lox"
+coproc prompted { timeout 60 java -cp "$work/classes" \
+  com.craftinginterpreters.lox.Lox "$work/prompt.lox"; }
+IFS= read -r -t 30 prompt <&"${prompted[0]}"
+echo Ada >&"${prompted[1]}"
+IFS= read -r -t 30 reply <&"${prompted[0]}"
+wait "$prompted_PID"
+same "prompt before read" "Name?
+Hello, Ada." "$prompt
+$reply"
+
+# The line filter: the script's top level runs before the first record,
+# and then the function is called with each line of stdin.
+cat >"$work/filter.lox" <<'EOF'
+print fieldCount();
+print field(1);
+fun process(line) {
+  if (field(1) == "stop") return -line;
+  return field(2) + ":" + fieldCount();
+}
+fun pair(a, b) { return a; }
+EOF
+printf 'a,b,c\nx,y\nstop\nafter\n' >"$work/filter.in"
+same "filter -p -F ," "0
+nil
+b:3
+y:2
+Operand must be a number.
+[line 4]
+exit 70" "$(lox -p -F , "$work/filter.lox" <"$work/filter.in")"
+# A function that cannot be one is blamed where it is declared.
+same "filter -f pair" "0
+nil
+Filter function 'pair' must be a function taking one argument.
+[line 7]
+exit 70" "$(lox -f pair "$work/filter.lox" <"$work/filter.in")"
+# An empty separator is refused rather than splitting forever.
+same "filter -F ''" "Usage: jlox [-n | -p] [-f function] [-F separator] [script]
+exit 64" "$(lox -F '' "$work/filter.lox" <"$work/filter.in")"
+
+# Mapped files: each iterator closes its file once the window is mapped,
+# so abandoning thousands of them does not run out of file descriptors.
+printf 'one;two\nthree;' >"$work/records.txt"
+cat >"$work/records.lox" <<EOF
+var path = "$work/records.txt";
+for (var i = 0; i < 3000; i = i + 1) { mapLines(path)(); }
+var next = mapRecords(path, ";");
+for (var record = next(); record != nil; record = next()) { print record; }
+print mapLines(path)();
+print mapRecords(path, ";;");
+EOF
+same "abandoned iterators" "one
+two
+three
+one;two
+Record delimiter must be one character.
+[line 6]
+exit 70" "$(ulimit -n 256; lox "$work/records.lox")"
+
+# Scan errors are reported in line order with the syntax errors, in
+# every front end, even where the source is big enough to be scanned in
+# chunks side by side.
+awk 'BEGIN {
+  for (i = 1; i <= 120000; i++) {
+    if (i % 40000 == 0) print "print 1 @ 2;"
+    else if (i % 40000 == 20000) print "var x = ;"
+    else print "{ var a = " i "; }"
+  }
+}' >"$work/big.lox"
+for option in -Dlox.scan.parallel=false "${FRONT_ENDS[@]}"; do
+  same "scan errors $option" "[line 20000] Error at ';': Expect expression.
+[line 40000] Error: Unexpected character.
+[line 40000] Error at '2': Expect ';' after value.
+[line 60000] Error at ';': Expect expression.
+[line 80000] Error: Unexpected character.
+[line 80000] Error at '2': Expect ';' after value.
+[line 100000] Error at ';': Expect expression.
+[line 120000] Error: Unexpected character.
+[line 120000] Error at '2': Expect ';' after value.
+exit 65" "$(lox "$option" "$work/big.lox")"
+done
+
+# The cache keeps programs unoptimized, so a hit runs the passes asked for
+# now, not the ones the program was cached under.
+cp "$root/test/lox/optimize.lox" "$work/cached.lox"
+lox -Dlox.cache=true -Dlox.optimize=true "$work/cached.lox" >/dev/null
+# Dated back, so a rewrite would show.
+touch -d @0 "$work/cached.loxc"
+for pipeline in fold false; do
+  dump="-Dlox.optimize=$pipeline -Dlox.optimize.dump=true"
+  same "cache hit -Dlox.optimize=$pipeline" "$(lox $dump "$work/cached.lox")" \
+    "$(lox -Dlox.cache=true $dump "$work/cached.lox")"
+done
+same "cache hit kept the cache" 0 "$(stat -c %Y "$work/cached.loxc")"
+
+# Every operation TypeInference specializes has the operands it proved,
+# even in the program written to mislead it, so none falls back to the
+# checked path, whether parsed at once or a function body at a time.
+for option in -Dlox.parse.lazy=false -Dlox.parse.lazy=true; do
+  same "types fell back $option" "specialized (0 fell back)" \
+    "$(lox "$option" -Dlox.optimize=true -Dlox.stats=true \
+      "$root/test/lox/types.lox" </dev/null |
+      grep -o 'specialized ([0-9]* fell back)')"
+done
+
+# REPL lines are optimized one at a time, each using what earlier lines
+# declared, and give what they give unoptimized.
+cat >"$work/repl.in" <<'EOF'
+class P { init(x, y) { this.x = x; this.y = y; } }
+fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+fun h(n) { return fib(n) + 1; }
+fun g() { var p = P(1, 2); print p.x + p.y; } g();
+print h(15);
+fun fib(n) { return 0; }
+print h(15);
+EOF
+same "repl -Dlox.optimize=true,memoize" "$(lox <"$work/repl.in")" \
+  "$(lox -Dlox.optimize=true,memoize <"$work/repl.in")"
+# A break at top level cannot affect the lines after it once it has run,
+# but one in a function can, whenever it is called. (The test of clock()
+# keeps the loop from being removed as dead code.)
+for line in 'if (clock() < 0) { while (true) { break; } }' \
+  'fun f() { while (true) { break; } }'; do
+  loop='for (var i = 0; i < 3; i = i + 1) { s = s + i; }'
+  printf '%s\n' "$line" "fun t() { var s = 0; $loop print s; } t();" \
+    >"$work/repl.in"
+  echo "$(lox -Dlox.optimize=true -Dlox.stats=true <"$work/repl.in" |
+    grep -o '[0-9]* counted loops')"
+done >"$work/counted"
+same "repl loops after a break" "1 counted loops
+0 counted loops" "$(cat "$work/counted")"
+
+# :reload runs only the declarations of a loaded file that have changed.
+# The REPL is driven line by line, so the file is edited only after the
+# first :load has been answered.
+cat >"$work/loaded.lox" <<'EOF'
+fun greet() { return "hello"; }
+fun twice(n) { return n * 2; }
+var count = 1;
+EOF
+coproc repl { timeout 60 java -cp "$work/classes" \
+  com.craftinginterpreters.lox.Lox; }
+talk() {
+  echo "$1" >&"${repl[1]}"
+  IFS= read -r -t 30 answer <&"${repl[0]}"
+  echo "$answer"
+}
+{
+  talk ":load $work/loaded.lox"
+  talk 'print greet() + twice(count);'
+  sed -i 's/"hello"/"hi"/' "$work/loaded.lox"
+  talk ":reload"
+  talk 'print greet() + twice(count);'
+} >"$work/reloaded"
+exec {repl[1]}>&-
+wait "$repl_PID"
+same ":load and :reload" "> Ran 3 of 3 declarations in $work/loaded.lox.
+> hello2
+> Ran 1 of 3 declarations in $work/loaded.lox.
+> hi2" "$(cat "$work/reloaded")"
+
+# A long REPL session keeps nothing of the lines it has finished, so a
+# million of them run in a small heap. (Run out of room, the JVM collects
+# over and over rather than failing, so the timeout is what catches it.)
+awk 'BEGIN {
+  for (i = 0; i < 1000000; i++) {
+    n = i % 1000
+    if (i % 4 == 0) print "var v" n " = " i ";"
+    else if (i % 4 == 1) print "fun f" n "(n) { return n + " i "; }"
+    else if (i % 4 == 2) print "print f" (i - 1) % 1000 "(" i ");"
+    else print "{ var a = \"s\" + " i "; a = a + a; }"
+  }
+}' >"$work/soak.in"
+same "repl soak -Xmx64m" "exit 0" "$(timeout 300 java -Xmx64m \
+  -cp "$work/classes" com.craftinginterpreters.lox.Lox <"$work/soak.in" \
+  2>&1 >/dev/null
+  echo "exit $?")"
+
+if [ "$failures" -gt 0 ]; then
+  echo "$failures checks failed."
+  exit 1
+fi
+echo "All checks passed."